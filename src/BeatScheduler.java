@@ -0,0 +1,123 @@
+
+import java.util.concurrent.locks.LockSupport;
+
+// Paces the beats of the playback thread.
+//
+// Each beat's deadline is computed from a fixed origin ( origin + k * period ),
+// rather than by sleeping a fixed interval after each beat,
+// so the time spent playing notes and repainting doesn't accumulate into drift.
+// If the thread falls behind by less than a beat, the next beat is played right away (catching up);
+// if it falls behind by a whole beat or more, the missed beats are skipped
+// so that playback stays on the original grid of deadlines.
+public class BeatScheduler {
+
+	public static final long NANOSECONDS_PER_MILLISECOND = 1000000L;
+	public static final long NANOSECONDS_PER_MINUTE = 60000L * NANOSECONDS_PER_MILLISECOND;
+
+	// Written by the event dispatching thread, read by the playback thread.
+	private volatile long periodInNanoseconds;
+
+	// These are only used by the playback thread.
+	private long periodInUse;
+	private long originInNanoseconds;
+	private long beatIndex; // number of beats since the origin
+
+	// Statistics, readable from any thread.
+	private volatile long lastLatenessInNanoseconds = 0;
+	private volatile long maxLatenessInNanoseconds = 0;
+	private volatile long numSkippedBeats = 0;
+
+	public BeatScheduler( long periodInNanoseconds ) {
+		this.periodInNanoseconds = periodInNanoseconds;
+		start();
+	}
+
+	public long getPeriodInNanoseconds() { return periodInNanoseconds; }
+	public void setPeriodInNanoseconds( long p ) {
+		if ( p > 0 )
+			periodInNanoseconds = p;
+	}
+
+	public float getTempoInBPM() { return NANOSECONDS_PER_MINUTE / (float)periodInNanoseconds; }
+	public void setTempoInBPM( float bpm ) {
+		if ( bpm > 0 )
+			setPeriodInNanoseconds( Math.round( NANOSECONDS_PER_MINUTE / (double)bpm ) );
+	}
+
+	// How late the most recent beat was, i.e. how long after its deadline the wait returned.
+	public long getLastLatenessInNanoseconds() { return lastLatenessInNanoseconds; }
+	public long getMaxLatenessInNanoseconds() { return maxLatenessInNanoseconds; }
+	public long getNumSkippedBeats() { return numSkippedBeats; }
+
+	// Restarts the grid of deadlines from now.
+	// Should be called by the playback thread when it starts or resumes.
+	public void start() {
+		periodInUse = periodInNanoseconds;
+		originInNanoseconds = System.nanoTime();
+		beatIndex = 0;
+	}
+
+	// Returns the time, on the System.nanoTime() clock, at which the next beat is due.
+	public long getNextDeadline() {
+		return originInNanoseconds + ( beatIndex + 1 ) * periodInUse;
+	}
+
+	// Returns the time at which the beat reached by the last call to awaitNextBeat() (or advance()) is due.
+	public long getCurrentDeadline() {
+		return originInNanoseconds + beatIndex * periodInUse;
+	}
+
+	// Waits until the next beat is due.
+	// Returns how many beats have elapsed since the previous call:
+	// normally 1, or more if beats had to be skipped.
+	public int awaitNextBeat() throws InterruptedException {
+		return awaitNextBeat( 0 );
+	}
+
+	// Same as above, but returns the given lead time before the beat is due,
+	// so that its notes can be sent ahead of time (see MidiOutput).
+	// Lateness is measured against the time the wait was meant to return.
+	public int awaitNextBeat( long leadInNanoseconds ) throws InterruptedException {
+		long wakeUpTime = getNextWakeUpTime( leadInNanoseconds );
+		long now;
+		while ( ( now = System.nanoTime() ) < wakeUpTime ) {
+			LockSupport.parkNanos( this, wakeUpTime - now );
+			if ( Thread.interrupted() )
+				throw new InterruptedException();
+		}
+		return advance( now, wakeUpTime );
+	}
+
+	// The two halves of awaitNextBeat(), for callers that do their own waiting
+	// (e.g. by scheduling a task on an executor, see PlaybackEngine).
+	// getNextWakeUpTime() returns when the next beat should be played,
+	// and advance() is then called once that time has come, and returns the number of elapsed beats.
+	public long getNextWakeUpTime( long leadInNanoseconds ) {
+		if ( periodInUse != periodInNanoseconds ) {
+			// The tempo changed. Start a new grid of deadlines at the last beat,
+			// so that the next beat comes one new period after it.
+			originInNanoseconds += beatIndex * periodInUse;
+			beatIndex = 0;
+			periodInUse = periodInNanoseconds;
+		}
+		return getNextDeadline() - leadInNanoseconds;
+	}
+	public int advance( long now, long wakeUpTime ) {
+		int elapsedBeats = 1;
+		long lateness = now - wakeUpTime;
+		if ( lateness >= periodInUse ) {
+			// More than a whole beat behind: skip to the most recent beat that is due.
+			int skipped = (int)( lateness / periodInUse );
+			elapsedBeats += skipped;
+			numSkippedBeats += skipped;
+			lateness -= skipped * periodInUse;
+		}
+		beatIndex += elapsedBeats;
+
+		lastLatenessInNanoseconds = lateness;
+		if ( lateness > maxLatenessInNanoseconds )
+			maxLatenessInNanoseconds = lateness;
+		return elapsedBeats;
+	}
+
+}
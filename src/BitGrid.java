@@ -0,0 +1,221 @@
+
+import java.util.Arrays;
+
+// Stores the on/off state of every (beat,pitch) cell of a score,
+// packed 64 pitches per long word.
+// With 88 pitches, each beat takes 2 words (16 bytes) instead of an
+// 88 byte boolean array plus its header,
+// and a whole beat can be tested for emptiness with a couple of comparisons.
+//
+// The timeline is split into chunks of BEATS_PER_CHUNK beats.
+// A chunk is only allocated when a cell is first set in it;
+// until then (and again once all its cells are cleared)
+// it refers to the single, shared EMPTY_CHUNK, which has no elements and so can never be written to.
+// A very long score therefore only costs memory for the regions that hold notes,
+// plus one reference per chunk.
+//
+// snapshot() returns a read-only copy that shares the chunks;
+// each chunk is copied the next time this grid writes to it.
+public class BitGrid {
+
+	private static final int BITS_PER_WORD = 64;
+	public static final int BEATS_PER_CHUNK = 256;
+	private static final long [] EMPTY_CHUNK = new long[ 0 ];
+
+	private int numBeats;
+	private int numPitches;
+	private int numWordsPerBeat;
+	private int numWordsPerChunk;
+	private long [][] chunks;
+	private boolean [] isChunkShared; // true if the chunk is also referenced by a snapshot
+	private final boolean isReadOnly;
+
+	public BitGrid( int numBeats, int numPitches ) {
+		this.numBeats = numBeats;
+		this.numPitches = numPitches;
+		numWordsPerBeat = ( numPitches + BITS_PER_WORD - 1 ) / BITS_PER_WORD;
+		numWordsPerChunk = BEATS_PER_CHUNK * numWordsPerBeat;
+		chunks = new long[ numChunksFor( numBeats ) ][];
+		Arrays.fill( chunks, EMPTY_CHUNK );
+		isChunkShared = new boolean[ chunks.length ];
+		isReadOnly = false;
+	}
+
+	private BitGrid( BitGrid other ) {
+		numBeats = other.numBeats;
+		numPitches = other.numPitches;
+		numWordsPerBeat = other.numWordsPerBeat;
+		numWordsPerChunk = other.numWordsPerChunk;
+		chunks = other.chunks.clone();
+		isReadOnly = true;
+	}
+
+	// Returns a read-only copy of the grid, safe to read from other threads once published.
+	// This costs one reference per chunk; the cells themselves are not copied.
+	public BitGrid snapshot() {
+		Arrays.fill( isChunkShared, true );
+		return new BitGrid( this );
+	}
+
+	public boolean isReadOnly() { return isReadOnly; }
+
+	// Returns the given chunk, ready to be written to.
+	private long [] getWritableChunk( int c ) {
+		if ( isReadOnly )
+			throw new IllegalStateException( "this grid is a read-only snapshot" );
+		if ( chunks[ c ] == EMPTY_CHUNK ) {
+			chunks[ c ] = new long[ numWordsPerChunk ];
+			isChunkShared[ c ] = false;
+		}
+		else if ( isChunkShared[ c ] ) {
+			chunks[ c ] = chunks[ c ].clone();
+			isChunkShared[ c ] = false;
+		}
+		return chunks[ c ];
+	}
+
+	private static int numChunksFor( int numBeats ) {
+		return ( numBeats + BEATS_PER_CHUNK - 1 ) / BEATS_PER_CHUNK;
+	}
+
+	public int getNumBeats() { return numBeats; }
+	public int getNumPitches() { return numPitches; }
+	public int getNumWordsPerBeat() { return numWordsPerBeat; }
+
+	// Returns how many chunks currently have storage of their own.
+	public int getNumAllocatedChunks() {
+		int n = 0;
+		for ( long [] chunk : chunks )
+			if ( chunk != EMPTY_CHUNK )
+				++n;
+		return n;
+	}
+
+	// Grows the grid, if necessary, so that it holds at least the given number of beats.
+	// The grid never shrinks, so cells beyond a shortened score are kept.
+	// Only the table of chunk references grows; no chunk is allocated.
+	public void ensureNumBeats( int n ) {
+		if ( isReadOnly )
+			throw new IllegalStateException( "this grid is a read-only snapshot" );
+		if ( n <= numBeats )
+			return;
+		int numChunks = numChunksFor( n );
+		if ( numChunks > chunks.length ) {
+			int oldLength = chunks.length;
+			chunks = Arrays.copyOf( chunks, Math.max( numChunks, 2 * oldLength ) );
+			Arrays.fill( chunks, oldLength, chunks.length, EMPTY_CHUNK );
+			isChunkShared = Arrays.copyOf( isChunkShared, chunks.length );
+		}
+		numBeats = n;
+	}
+
+	// Returns the word holding pitches [ 64*wordIndex, 64*wordIndex+63 ] of the given beat,
+	// with the lowest pitch in the least significant bit.
+	public long getWord( int beat, int wordIndex ) {
+		long [] chunk = chunks[ beat / BEATS_PER_CHUNK ];
+		if ( chunk == EMPTY_CHUNK )
+			return 0;
+		return chunk[ ( beat % BEATS_PER_CHUNK ) * numWordsPerBeat + wordIndex ];
+	}
+
+	public boolean get( int beat, int pitch ) {
+		if ( beat < 0 || beat >= numBeats || pitch < 0 || pitch >= numPitches )
+			return false;
+		return ( getWord( beat, pitch / BITS_PER_WORD ) & ( 1L << pitch ) ) != 0;
+	}
+
+	public void set( int beat, int pitch ) {
+		if ( beat < 0 || beat >= numBeats || pitch < 0 || pitch >= numPitches )
+			return;
+		long [] chunk = getWritableChunk( beat / BEATS_PER_CHUNK );
+		chunk[ ( beat % BEATS_PER_CHUNK ) * numWordsPerBeat + pitch / BITS_PER_WORD ] |= 1L << pitch;
+	}
+
+	public void clear( int beat, int pitch ) {
+		if ( beat < 0 || beat >= numBeats || pitch < 0 || pitch >= numPitches )
+			return;
+		int c = beat / BEATS_PER_CHUNK;
+		if ( chunks[ c ] == EMPTY_CHUNK )
+			return;
+		long [] chunk = getWritableChunk( c );
+		int i = ( beat % BEATS_PER_CHUNK ) * numWordsPerBeat + pitch / BITS_PER_WORD;
+		chunk[ i ] &= ~( 1L << pitch );
+		// give the memory back once the chunk holds nothing
+		if ( chunk[ i ] == 0 && isChunkEmpty( chunk ) )
+			chunks[ c ] = EMPTY_CHUNK;
+	}
+
+	public void set( int beat, int pitch, boolean flag ) {
+		if ( flag ) set( beat, pitch );
+		else clear( beat, pitch );
+	}
+
+	public void clearAll() {
+		if ( isReadOnly )
+			throw new IllegalStateException( "this grid is a read-only snapshot" );
+		Arrays.fill( chunks, EMPTY_CHUNK );
+	}
+
+	private static boolean isChunkEmpty( long [] chunk ) {
+		for ( long word : chunk )
+			if ( word != 0 )
+				return false;
+		return true;
+	}
+
+	public boolean isBeatEmpty( int beat ) {
+		long [] chunk = chunks[ beat / BEATS_PER_CHUNK ];
+		if ( chunk == EMPTY_CHUNK )
+			return true;
+		int base = ( beat % BEATS_PER_CHUNK ) * numWordsPerBeat;
+		for ( int w = 0; w < numWordsPerBeat; ++w )
+			if ( chunk[ base + w ] != 0 )
+				return false;
+		return true;
+	}
+
+	// Returns the lowest pitch >= fromPitch that is set in the given beat,
+	// or -1 if there is none.
+	// Typical usage:
+	//    for ( int p = grid.nextSetBit( beat, 0 ); p >= 0; p = grid.nextSetBit( beat, p+1 ) ) ...
+	public int nextSetBit( int beat, int fromPitch ) {
+		if ( fromPitch >= numPitches )
+			return -1;
+		if ( fromPitch < 0 )
+			fromPitch = 0;
+		long [] chunk = chunks[ beat / BEATS_PER_CHUNK ];
+		if ( chunk == EMPTY_CHUNK )
+			return -1;
+		int base = ( beat % BEATS_PER_CHUNK ) * numWordsPerBeat;
+		int w = fromPitch / BITS_PER_WORD;
+		long word = chunk[ base + w ] & ( -1L << fromPitch );
+		while ( true ) {
+			if ( word != 0 )
+				return w * BITS_PER_WORD + Long.numberOfTrailingZeros( word );
+			if ( ++w == numWordsPerBeat )
+				return -1;
+			word = chunk[ base + w ];
+		}
+	}
+
+	// Returns the lowest beat >= fromBeat that has at least one pitch set,
+	// or -1 if there is none.
+	// Unallocated chunks are skipped without looking at their cells.
+	public int nextNonEmptyBeat( int fromBeat ) {
+		if ( fromBeat < 0 )
+			fromBeat = 0;
+		for ( int c = fromBeat / BEATS_PER_CHUNK; c * BEATS_PER_CHUNK < numBeats; ++c ) {
+			long [] chunk = chunks[ c ];
+			if ( chunk == EMPTY_CHUNK )
+				continue;
+			int firstBeat = Math.max( fromBeat, c * BEATS_PER_CHUNK ) - c * BEATS_PER_CHUNK;
+			int end = Math.min( numBeats - c * BEATS_PER_CHUNK, BEATS_PER_CHUNK ) * numWordsPerBeat;
+			for ( int i = firstBeat * numWordsPerBeat; i < end; ++i ) {
+				if ( chunk[ i ] != 0 )
+					return c * BEATS_PER_CHUNK + i / numWordsPerBeat;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -14,9 +14,33 @@ public class Constant {
 
 	public static final float MENU_ALPHA = 0.6f;
 
+	// When a beat is narrower than this, in pixels, the score is drawn as a density map instead of notes.
+	public static final float MIN_PIXELS_PER_BEAT_TO_DRAW_NOTES = 2;
+	public static final float MIN_PIXELS_PER_DENSITY_BLOCK = 4;
+	public static final int NUM_DENSITY_SHADES = 8;
+	public static final float MIN_PIXELS_BETWEEN_BAR_LINES = 8;
+	// The notes are cached in tiles of this many pixels (see NoteTileCache), using up to this much memory.
+	public static final int NOTE_TILE_SIZE_IN_PIXELS = 256;
+	public static final long NOTE_TILE_CACHE_BUDGET_IN_BYTES = 64L * 1024 * 1024;
+	// When the score is drawn on a thread of its own (see FrameRenderer), frames start at most this often.
+	public static final int FRAME_INTERVAL_IN_MILLISECONDS = 16;
+	// While panning or zooming, the score is shown as a bitmap until the pointer has been idle this long (see GestureView).
+	public static final int GESTURE_IDLE_IN_MILLISECONDS = 150;
+
 	public static final boolean USE_SOUND = true;
 
 	public static final int midiVolume = 127;
+
+	// How long before each beat is due its notes are sent to the synthesizer, with timestamps.
+	public static final int MIDI_LOOKAHEAD_IN_MILLISECONDS = 20;
+	// Edits are handed to the playback thread at most this often (see MyCanvas.publishScore()).
+	public static final int SCORE_PUBLISH_INTERVAL_IN_MILLISECONDS = 50;
+
+	// The groove applied when playing (see Groove).
+	public static final double SWING_IN_BEATS = 1.0 / 3; // every odd beat is delayed by this much
+	public static final int HUMANIZE_TIMING_IN_MILLISECONDS = 6; // standard deviation
+	public static final int HUMANIZE_VELOCITY = 10; // standard deviation
+	public static final long GROOVE_SEED = 1;
 	
     public static final int MAJOR_SCALE = 1; 
     public static final int PENTATONIC_SCALE = 2; 
@@ -0,0 +1,349 @@
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Draws the score on a thread of its own, so that a slow frame doesn't hold up the event dispatching thread,
+// and with it the handling of the mouse.
+//
+// paintComponent() calls requestFrame() with what it would have drawn: the view and the cursors.
+// The score drawn is the snapshot last published by the canvas for playback, handed over with setScore(),
+// so no snapshot is taken on the event dispatching thread for the sake of drawing,
+// and a burst of edits is drawn once it is published, along with the changes it holds.
+// Requests aren't queued: a request the thread hasn't started yet is replaced by the next one,
+// so the thread always draws the most recent state, however long frames take.
+// The thread draws into a back buffer, through a GraphicsWrapper of its own,
+// and publishes each finished frame with an atomic swap; drawLatestFrame() then only copies it to the window.
+// There are three buffers: the one being shown, at most one published but not shown yet, and the one being drawn,
+// so the thread never draws into an image that the event dispatching thread may be copying.
+//
+// Frame pacing: frames start at most once per frame interval, so a frame that was requested while the previous
+// one was drawn waits for the interval to pass and is then drawn in its latest state,
+// and the thread runs below the priority of the event dispatching thread,
+// so input is still handled first when frames take longer than the interval.
+//
+// The thread keeps its own ScoreBackground and NoteTileCache.
+// As a ScoreListener, the renderer notes the changes made to the notes, and hands them to the thread
+// along with the snapshot holding them, so that only the tiles showing them are redrawn.
+public class FrameRenderer implements ScoreListener, Runnable {
+
+	private static class FrameRequest {
+		int widthInPixels, heightInPixels;
+		float offsetXInPixels, offsetYInPixels, scaleFactorInWorldSpaceUnitsPerPixel;
+		double deviceScaleX, deviceScaleY;
+		Score score;
+		boolean highlightMajorCScale;
+		int midiNoteNumber1ToHilite, beat1ToHilite, beat2ToHilite;
+
+		// What changed in the notes since the previous snapshot:
+		// ( onset, duration, pitch ) triples, or everything.
+		IntList changedNotes = null;
+		boolean haveAllNotesChanged = false;
+
+		boolean isSameFrameAs( FrameRequest r ) {
+			return score == r.score
+				&& widthInPixels == r.widthInPixels
+				&& heightInPixels == r.heightInPixels
+				&& offsetXInPixels == r.offsetXInPixels
+				&& offsetYInPixels == r.offsetYInPixels
+				&& scaleFactorInWorldSpaceUnitsPerPixel == r.scaleFactorInWorldSpaceUnitsPerPixel
+				&& deviceScaleX == r.deviceScaleX
+				&& deviceScaleY == r.deviceScaleY
+				&& highlightMajorCScale == r.highlightMajorCScale
+				&& midiNoteNumber1ToHilite == r.midiNoteNumber1ToHilite
+				&& beat1ToHilite == r.beat1ToHilite
+				&& beat2ToHilite == r.beat2ToHilite;
+		}
+
+		// Takes on the changes of a request that is replaced before being drawn.
+		void addChangesOf( FrameRequest r ) {
+			haveAllNotesChanged |= r.haveAllNotesChanged;
+			if ( r.changedNotes == null )
+				return;
+			if ( changedNotes == null )
+				changedNotes = new IntList();
+			for ( int i = 0; i < r.changedNotes.size(); ++i )
+				changedNotes.add( r.changedNotes.get( i ) );
+		}
+	}
+
+	private static class Frame {
+		BufferedImage image;
+		int widthInPixels, heightInPixels;
+	}
+
+	private Component component;
+	private Color backgroundColor;
+	private volatile long frameIntervalInNanoseconds = Constant.FRAME_INTERVAL_IN_MILLISECONDS * BeatScheduler.NANOSECONDS_PER_MILLISECOND;
+	private volatile Thread thread = null;
+
+	// Only used by the event dispatching thread.
+	// The changes made to the notes since the last call to setScore(),
+	// and those held by the snapshot it was given that haven't been requested yet.
+	private IntList changedNotes = new IntList();
+	private boolean haveAllNotesChanged = true;
+	private Score snapshot = null;
+	private IntList changedNotesOfSnapshot = new IntList();
+	private boolean haveAllNotesChangedInSnapshot = true;
+	private FrameRequest lastRequest = null;
+	private FrameRequest nextRequest = new FrameRequest();
+	private Frame frontFrame = null;
+
+	// Handed from the event dispatching thread to the rendering thread.
+	private final Object lock = new Object();
+	private FrameRequest pendingRequest = null;
+
+	// Handed from the rendering thread to the event dispatching thread, and back.
+	private final AtomicReference< Frame > publishedFrame = new AtomicReference< Frame >();
+	private final AtomicReference< Frame > spareFrame = new AtomicReference< Frame >();
+
+	// Statistics, readable from any thread.
+	private volatile long lastFrameDurationInNanoseconds = 0;
+	private volatile long numFramesDrawn = 0;
+	private volatile long numRequestsReplaced = 0;
+
+	// The component is repainted whenever a frame is published.
+	// The background color is that of the window behind the score (see ScoreBackground).
+	public FrameRenderer( Component component, Color backgroundColor ) {
+		this.component = component;
+		this.backgroundColor = backgroundColor;
+	}
+
+	public long getFrameIntervalInNanoseconds() { return frameIntervalInNanoseconds; }
+	public void setFrameIntervalInNanoseconds( long n ) {
+		if ( n >= 0 )
+			frameIntervalInNanoseconds = n;
+	}
+
+	public long getLastFrameDurationInNanoseconds() { return lastFrameDurationInNanoseconds; }
+	public long getNumFramesDrawn() { return numFramesDrawn; }
+	// How many requests were replaced by a later one before being drawn.
+	public long getNumRequestsReplaced() { return numRequestsReplaced; }
+
+	// These are called from the event dispatching thread.
+
+	public boolean isRunning() { return thread != null; }
+
+	public void start() {
+		if ( thread != null )
+			return;
+		haveAllNotesChanged = true;
+		changedNotes.clear();
+		snapshot = null;
+		lastRequest = null;
+		frontFrame = null;
+		publishedFrame.set( null );
+		spareFrame.set( null );
+		synchronized ( lock ) {
+			pendingRequest = null;
+		}
+		thread = new Thread( this, "FrameRenderer" );
+		thread.setDaemon( true );
+		thread.setPriority( Thread.NORM_PRIORITY - 1 );
+		thread.start();
+	}
+
+	// The thread stops after the frame it is drawing, if any, which is then dropped.
+	public void stop() {
+		if ( thread == null )
+			return;
+		thread.interrupt();
+		thread = null;
+		frontFrame = null;
+	}
+
+	// Sets the score to draw: a snapshot (see Score.snapshot()) holding the edits made so far,
+	// which are drawn at the next request. The component is repainted, so that there is one.
+	public void setScore( Score snapshot ) {
+		assert snapshot.notes.isReadOnly();
+		this.snapshot = snapshot;
+		if ( thread == null )
+			return;
+		haveAllNotesChangedInSnapshot |= haveAllNotesChanged;
+		haveAllNotesChanged = false;
+		if ( haveAllNotesChangedInSnapshot )
+			changedNotesOfSnapshot.clear();
+		else {
+			for ( int i = 0; i < changedNotes.size(); ++i )
+				changedNotesOfSnapshot.add( changedNotes.get( i ) );
+		}
+		changedNotes.clear();
+		component.repaint();
+	}
+
+	// Asks for a frame of the score last set, in the view of the given GraphicsWrapper,
+	// unless it would be the same as the frame last asked for.
+	public void requestFrame(
+		GraphicsWrapper gw,
+		boolean highlightMajorCScale,
+		int midiNoteNumber1ToHilite,
+		int beat1ToHilite,
+		int beat2ToHilite
+	) {
+		if ( thread == null || snapshot == null )
+			return;
+		FrameRequest request = nextRequest;
+		request.score = snapshot;
+		request.widthInPixels = gw.getWidth();
+		request.heightInPixels = gw.getHeight();
+		request.offsetXInPixels = gw.getOffsetXInPixels();
+		request.offsetYInPixels = gw.getOffsetYInPixels();
+		request.scaleFactorInWorldSpaceUnitsPerPixel = gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+		AffineTransform deviceTransform = gw.originalTransform;
+		request.deviceScaleX = deviceTransform.getScaleX();
+		request.deviceScaleY = deviceTransform.getScaleY();
+		request.highlightMajorCScale = highlightMajorCScale;
+		request.midiNoteNumber1ToHilite = midiNoteNumber1ToHilite;
+		request.beat1ToHilite = beat1ToHilite;
+		request.beat2ToHilite = beat2ToHilite;
+		if ( lastRequest != null && request.isSameFrameAs( lastRequest ) )
+			return; // nextRequest is reused for the next call
+		if ( ! changedNotesOfSnapshot.isEmpty() ) {
+			request.changedNotes = changedNotesOfSnapshot;
+			changedNotesOfSnapshot = new IntList();
+		}
+		request.haveAllNotesChanged = haveAllNotesChangedInSnapshot;
+		haveAllNotesChangedInSnapshot = false;
+		lastRequest = request;
+		nextRequest = new FrameRequest();
+		synchronized ( lock ) {
+			if ( pendingRequest != null ) {
+				request.addChangesOf( pendingRequest );
+				++numRequestsReplaced;
+			}
+			pendingRequest = request;
+			lock.notify();
+		}
+	}
+
+	// Copies the latest frame into the window of the given GraphicsWrapper,
+	// whose coordinate system is left in pixels.
+	// Returns false if no frame has been drawn yet.
+	public boolean drawLatestFrame( GraphicsWrapper gw ) {
+		Frame frame = publishedFrame.getAndSet( null );
+		if ( frame != null ) {
+			if ( frontFrame != null )
+				spareFrame.set( frontFrame );
+			frontFrame = frame;
+		}
+		if ( frontFrame == null )
+			return false;
+		gw.setCoordinateSystemToPixels();
+		gw.drawImage( frontFrame.image, 0, 0, frontFrame.widthInPixels, frontFrame.heightInPixels );
+		return true;
+	}
+
+	public void noteAdded( int onset, int duration, int pitch, int velocity ) {
+		noteChanged( onset, duration, pitch );
+	}
+	public void noteRemoved( int onset, int duration, int pitch, int velocity ) {
+		noteChanged( onset, duration, pitch );
+	}
+	private void noteChanged( int onset, int duration, int pitch ) {
+		if ( thread == null || haveAllNotesChanged )
+			return;
+		changedNotes.add( onset );
+		changedNotes.add( duration );
+		changedNotes.add( pitch );
+	}
+	public void scoreCleared() {
+		haveAllNotesChanged = true;
+		changedNotes.clear();
+	}
+	// The thread's NoteTileCache finds the change of length in the snapshot it draws.
+	public void numBeatsChanged( int numBeats ) { }
+	public void loopRegionChanged( int loopStart, int loopEnd ) { }
+	public void tempoMapChanged( TempoMap tempoMap ) { }
+
+	// The rendering thread.
+	public void run() {
+		GraphicsWrapper gw = new GraphicsWrapper();
+		ScoreBackground background = new ScoreBackground( backgroundColor );
+		NoteTileCache noteTiles = new NoteTileCache( Constant.NOTE_TILE_CACHE_BUDGET_IN_BYTES );
+		Frame backFrame = null;
+		long lastFrameStart = System.nanoTime() - frameIntervalInNanoseconds;
+		try {
+			while ( true ) {
+				synchronized ( lock ) {
+					while ( pendingRequest == null )
+						lock.wait();
+				}
+				// Wait for the frame interval to pass; the request may meanwhile be replaced by a later one.
+				long startTime = lastFrameStart + frameIntervalInNanoseconds;
+				long now;
+				while ( ( now = System.nanoTime() ) < startTime ) {
+					LockSupport.parkNanos( this, startTime - now );
+					if ( Thread.interrupted() )
+						throw new InterruptedException();
+				}
+				lastFrameStart = now;
+				FrameRequest request;
+				synchronized ( lock ) {
+					request = pendingRequest;
+					pendingRequest = null;
+				}
+
+				if ( backFrame == null )
+					backFrame = spareFrame.getAndSet( null );
+				if ( backFrame == null )
+					backFrame = new Frame();
+				draw( request, backFrame, gw, background, noteTiles );
+				lastFrameDurationInNanoseconds = System.nanoTime() - now;
+				++numFramesDrawn;
+				if ( thread != Thread.currentThread() )
+					return; // stopped while drawing
+				// a frame published earlier but not shown yet is drawn into next
+				backFrame = publishedFrame.getAndSet( backFrame );
+				component.repaint();
+			}
+		}
+		catch ( InterruptedException e ) { }
+	}
+
+	private void draw( FrameRequest request, Frame frame, GraphicsWrapper gw, ScoreBackground background, NoteTileCache noteTiles ) {
+		if ( request.haveAllNotesChanged )
+			noteTiles.clear();
+		else if ( request.changedNotes != null ) {
+			IntList changes = request.changedNotes;
+			for ( int i = 0; i < changes.size(); i += 3 )
+				noteTiles.invalidate( changes.get( i ), changes.get( i+1 ), changes.get( i+2 ) );
+		}
+
+		int w = Math.max( 1, (int)Math.ceil( request.widthInPixels * request.deviceScaleX ) );
+		int h = Math.max( 1, (int)Math.ceil( request.heightInPixels * request.deviceScaleY ) );
+		if ( frame.image == null || frame.image.getWidth() != w || frame.image.getHeight() != h )
+			frame.image = new BufferedImage( w, h, BufferedImage.TYPE_INT_RGB );
+		frame.widthInPixels = request.widthInPixels;
+		frame.heightInPixels = request.heightInPixels;
+		Graphics2D g2 = frame.image.createGraphics();
+		try {
+			g2.scale( request.deviceScaleX, request.deviceScaleY );
+			gw.set( g2 );
+			gw.setView(
+				request.widthInPixels, request.heightInPixels,
+				request.offsetXInPixels, request.offsetYInPixels,
+				request.scaleFactorInWorldSpaceUnitsPerPixel
+			);
+			gw.setupForDrawing();
+			gw.setCoordinateSystemToWorldSpaceUnits();
+			gw.enableAlphaBlending();
+			request.score.draw(
+				gw,
+				background,
+				noteTiles,
+				request.highlightMajorCScale,
+				request.midiNoteNumber1ToHilite,
+				request.beat1ToHilite,
+				request.beat2ToHilite
+			);
+		}
+		finally {
+			g2.dispose();
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+
+import java.awt.Component;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Measures how responsive the canvas is, in LatencyHistograms:
+// - how long each paintComponent() takes;
+// - how long input events wait in the event queue before being handled (the EDT queue delay),
+//   measured from the time stamp of the event, to the millisecond;
+// - how long after the playback thread moves to a new beat the time cursor is painted there (beat to pixel latency),
+//   i.e. until a paint whose clip covers the time cursor ends.
+// Beats that are moved past before being painted at all are counted as dropped.
+//
+// Everything may be recorded from any thread. snapshot() returns copies for tests and tools,
+// and draw() shows them over the window; repaint() should then be called whenever something is recorded.
+public class FrameStats {
+
+	private final LatencyHistogram paintDurations = new LatencyHistogram();
+	private final LatencyHistogram queueDelays = new LatencyHistogram();
+	private final LatencyHistogram beatToPixelLatencies = new LatencyHistogram();
+	private final AtomicLong numDroppedBeats = new AtomicLong();
+
+	// When the latest beat not painted yet started, or 0.
+	private final AtomicLong pendingBeatTime = new AtomicLong();
+
+	// The size of the statistics last drawn, in pixels from the top left corner, so they can be repainted from any thread.
+	private volatile int drawnWidth = 0, drawnHeight = 0;
+
+	// The statistics at a point in time.
+	public static class Snapshot {
+		public final LatencyHistogram paintDurations;
+		public final LatencyHistogram queueDelays;
+		public final LatencyHistogram beatToPixelLatencies;
+		public final long numDroppedBeats;
+
+		private Snapshot( FrameStats stats ) {
+			paintDurations = stats.paintDurations.snapshot();
+			queueDelays = stats.queueDelays.snapshot();
+			beatToPixelLatencies = stats.beatToPixelLatencies.snapshot();
+			numDroppedBeats = stats.numDroppedBeats.get();
+		}
+	}
+
+	public Snapshot snapshot() {
+		return new Snapshot( this );
+	}
+
+	public void reset() {
+		paintDurations.reset();
+		queueDelays.reset();
+		beatToPixelLatencies.reset();
+		numDroppedBeats.set( 0 );
+		pendingBeatTime.set( 0 );
+	}
+
+	// Called as an input event is handled, with its time stamp (InputEvent.getWhen()).
+	public void eventHandled( long whenInMilliseconds ) {
+		queueDelays.record( ( System.currentTimeMillis() - whenInMilliseconds ) * BeatScheduler.NANOSECONDS_PER_MILLISECOND );
+	}
+
+	// Called by the playback thread when the time cursor moves to a new beat.
+	public void beatStarted() {
+		long now = System.nanoTime();
+		if ( pendingBeatTime.getAndSet( now == 0 ? 1 : now ) != 0 )
+			numDroppedBeats.incrementAndGet();
+	}
+
+	// Called at the end of paintComponent(), with the time it started at,
+	// and whether its clip covered the time cursor; a paint that didn't, e.g. one repainting the mouse cursor,
+	// leaves the beat pending.
+	public void framePainted( long startTimeInNanoseconds, boolean isTimeCursorPainted ) {
+		long now = System.nanoTime();
+		paintDurations.record( now - startTimeInNanoseconds );
+		if ( ! isTimeCursorPainted )
+			return;
+		long beatTime = pendingBeatTime.getAndSet( 0 );
+		if ( beatTime != 0 )
+			beatToPixelLatencies.record( now - beatTime );
+	}
+
+	private static final int MARGIN = 5;
+
+	// Draws the statistics in the top left corner of the window, in pixels.
+	public void draw( GraphicsWrapper gw ) {
+		String [] lines = {
+			describe( "paint", paintDurations ),
+			describe( "event queue", queueDelays ),
+			describe( "beat to pixel", beatToPixelLatencies ),
+			"dropped beats: " + numDroppedBeats.get()
+		};
+		int lineHeight = RadialMenuWidget.textHeight + MARGIN;
+		float width = 0;
+		for ( String line : lines )
+			width = Math.max( width, gw.stringWidth( line ) );
+		gw.setCoordinateSystemToPixels();
+		gw.setColor( 0, 0, 0, 0.6f );
+		gw.fillRect( MARGIN, MARGIN, width + 2*MARGIN, lines.length * lineHeight + MARGIN );
+		drawnWidth = MARGIN + (int)Math.ceil( width + 2*MARGIN ) + 1;
+		drawnHeight = MARGIN + lines.length * lineHeight + MARGIN + 1;
+		gw.setColor( 1, 1, 1 );
+		for ( int i = 0; i < lines.length; ++i )
+			gw.drawString( 2*MARGIN, MARGIN + ( i + 1 ) * lineHeight, lines[ i ] );
+	}
+
+	// Repaints the statistics drawn over the given component, so they show what was just recorded:
+	// the repaints of the rest of the component only cover parts of them, if any.
+	// May be called from any thread.
+	public void repaint( Component component ) {
+		if ( drawnWidth > 0 )
+			component.repaint( 0, 0, drawnWidth, drawnHeight );
+	}
+
+	private static String describe( String name, LatencyHistogram h ) {
+		return name + " (" + h.getCount() + "): median " + toMilliseconds( h.getPercentileInNanoseconds( 0.5 ) )
+			+ ", 99% " + toMilliseconds( h.getPercentileInNanoseconds( 0.99 ) )
+			+ ", max " + toMilliseconds( h.getMaxInNanoseconds() ) + " ms";
+	}
+	private static String toMilliseconds( long nanoseconds ) {
+		return String.format( "%.1f", nanoseconds / (double)BeatScheduler.NANOSECONDS_PER_MILLISECOND );
+	}
+
+}
@@ -0,0 +1,138 @@
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import javax.swing.Timer;
+
+// While the user pans or zooms, the window shows a bitmap of the score instead of drawing the score for every mouse event.
+// The bitmap is drawn once, at the first frame of the gesture, and later frames only move and scale it
+// to follow the view, which costs a single copy of an image however large the score is.
+// Parts of the window that the bitmap doesn't cover (e.g. when zooming out) are filled with the background color.
+//
+// Once the pointer has been idle for the given delay, or the gesture ends, the component is repainted,
+// and the score is drawn at full quality again.
+//
+// This is only used by the event dispatching thread.
+public class GestureView implements ActionListener {
+
+	private Component component;
+	private Color backgroundColor;
+	private Timer idleTimer;
+	private boolean isActive = false;
+
+	private BufferedImage image = null;
+	private boolean isImageValid = false;
+	private GraphicsWrapper imageGW = new GraphicsWrapper();
+
+	// The view the image was drawn in.
+	private float offsetXInPixels, offsetYInPixels, scaleFactorInWorldSpaceUnitsPerPixel;
+	private int widthInPixels, heightInPixels;
+
+	public GestureView( Component component, Color backgroundColor, int idleDelayInMilliseconds ) {
+		this.component = component;
+		this.backgroundColor = backgroundColor;
+		idleTimer = new Timer( idleDelayInMilliseconds, this );
+		idleTimer.setRepeats( false );
+	}
+
+	public boolean isActive() { return isActive; }
+
+	// Should be called at each event of a pan or zoom gesture.
+	// The first call starts the gesture; each call puts off its end by the idle delay.
+	public void update() {
+		if ( ! isActive ) {
+			isActive = true;
+			isImageValid = false;
+		}
+		idleTimer.restart();
+	}
+
+	// Ends the gesture, if there's one, and repaints the component at full quality.
+	public void end() {
+		idleTimer.stop();
+		if ( ! isActive )
+			return;
+		isActive = false;
+		component.repaint();
+	}
+
+	// Called by the timer once the pointer has been idle.
+	public void actionPerformed( ActionEvent e ) {
+		end();
+	}
+
+	// Fills the window of the given GraphicsWrapper with the bitmap of the score, moved and scaled to the current view.
+	// The first call of a gesture draws the bitmap, with Score.draw() and the given arguments.
+	// The coordinate system of the GraphicsWrapper is left in pixels.
+	public void draw(
+		GraphicsWrapper gw,
+		Score score,
+		ScoreBackground background,
+		NoteTileCache noteTiles,
+		boolean highlightMajorCScale,
+		int midiNoteNumber1ToHilite,
+		int beat1ToHilite,
+		int beat2ToHilite
+	) {
+		if ( ! isImageValid ) {
+			render( gw, score, background, noteTiles, highlightMajorCScale, midiNoteNumber1ToHilite, beat1ToHilite, beat2ToHilite );
+			isImageValid = true;
+		}
+		gw.setCoordinateSystemToPixels();
+		gw.setColor( backgroundColor );
+		gw.fillRect( 0, 0, gw.getWidth(), gw.getHeight() );
+		// A point at pixel p0 of the image is at world coordinate ( p0 - offset0 ) * scale0,
+		// which is now at pixel ( p0 - offset0 ) * scale0 / scale + offset.
+		float k = scaleFactorInWorldSpaceUnitsPerPixel / gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+		gw.drawImage(
+			image,
+			gw.getOffsetXInPixels() - offsetXInPixels * k,
+			gw.getOffsetYInPixels() - offsetYInPixels * k,
+			widthInPixels * k,
+			heightInPixels * k
+		);
+	}
+
+	private void render(
+		GraphicsWrapper gw,
+		Score score,
+		ScoreBackground background,
+		NoteTileCache noteTiles,
+		boolean highlightMajorCScale,
+		int midiNoteNumber1ToHilite,
+		int beat1ToHilite,
+		int beat2ToHilite
+	) {
+		offsetXInPixels = gw.getOffsetXInPixels();
+		offsetYInPixels = gw.getOffsetYInPixels();
+		scaleFactorInWorldSpaceUnitsPerPixel = gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+		widthInPixels = gw.getWidth();
+		heightInPixels = gw.getHeight();
+		AffineTransform deviceTransform = gw.originalTransform;
+		double deviceScaleX = deviceTransform.getScaleX(), deviceScaleY = deviceTransform.getScaleY();
+		int w = Math.max( 1, (int)Math.ceil( widthInPixels * deviceScaleX ) );
+		int h = Math.max( 1, (int)Math.ceil( heightInPixels * deviceScaleY ) );
+		if ( image == null || image.getWidth() != w || image.getHeight() != h )
+			image = new BufferedImage( w, h, BufferedImage.TYPE_INT_RGB );
+		Graphics2D g2 = image.createGraphics();
+		try {
+			g2.setColor( backgroundColor );
+			g2.fillRect( 0, 0, w, h );
+			g2.scale( deviceScaleX, deviceScaleY );
+			imageGW.set( g2 );
+			imageGW.copyViewFrom( gw );
+			imageGW.setupForDrawing();
+			imageGW.setCoordinateSystemToWorldSpaceUnits();
+			imageGW.enableAlphaBlending();
+			score.draw( imageGW, background, noteTiles, highlightMajorCScale, midiNoteNumber1ToHilite, beat1ToHilite, beat2ToHilite );
+		}
+		finally {
+			g2.dispose();
+		}
+	}
+
+}
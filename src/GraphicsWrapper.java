@@ -4,6 +4,8 @@ import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Font;
 import java.awt.FontMetrics;
+import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Arc2D;
@@ -11,11 +13,14 @@ import java.awt.geom.GeneralPath;
 import java.awt.geom.Path2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.AffineTransform;
+import javax.swing.SwingUtilities;
 
 
 
 import java.lang.Math;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.awt.Color;
 
 
@@ -43,18 +48,59 @@ class GraphicsWrapper {
 	private Ellipse2D.Float ellipse2D = new Ellipse2D.Float();
 	private Arc2D.Float arc2D = new Arc2D.Float();
 
-	public void set( Graphics g ) { this.g = g; this.g2 = (Graphics2D)g; this.originalTransform = g2.getTransform(); }
+	public void set( Graphics g ) { this.g = g; this.g2 = (Graphics2D)g; this.originalTransform = g2.getTransform(); isCoordinateSystemWorldSpaceUnits = false; }
+
+	// Makes this wrapper show the same region of world space, in a window of the same size, as the other one.
+	public void copyViewFrom( GraphicsWrapper other ) {
+		windowWidthInPixels = other.windowWidthInPixels;
+		windowHeightInPixels = other.windowHeightInPixels;
+		hasFrameOrResizeBeenCalledBefore = other.hasFrameOrResizeBeenCalledBefore;
+		offsetXInPixels = other.offsetXInPixels;
+		offsetYInPixels = other.offsetYInPixels;
+		scaleFactorInWorldSpaceUnitsPerPixel = other.scaleFactorInWorldSpaceUnitsPerPixel;
+	}
+	// As above, but with a window covering only the given rectangle (in pixels) of the other's window.
+	public void copyViewFrom( GraphicsWrapper other, int x, int y, int width, int height ) {
+		copyViewFrom( other );
+		windowWidthInPixels = width;
+		windowHeightInPixels = height;
+		offsetXInPixels -= x;
+		offsetYInPixels -= y;
+	}
+	// Makes this wrapper show the given view (see getOffsetXInPixels() and getScaleFactorInWorldSpaceUnitsPerPixel()),
+	// in a window of the given size.
+	public void setView( int width, int height, float offsetXInPixels, float offsetYInPixels, float scaleFactorInWorldSpaceUnitsPerPixel ) {
+		windowWidthInPixels = width;
+		windowHeightInPixels = height;
+		hasFrameOrResizeBeenCalledBefore = true;
+		this.offsetXInPixels = offsetXInPixels;
+		this.offsetYInPixels = offsetYInPixels;
+		this.scaleFactorInWorldSpaceUnitsPerPixel = scaleFactorInWorldSpaceUnitsPerPixel;
+	}
 
 
 
 
 	private int fontHeight = 14;
 	private Font font = new Font( "Sans-serif", Font.BOLD, fontHeight );
-	private FontMetrics fontMetrics = null;
+	// The fonts of each height used, and the metrics of each font (obtained when a string is first measured with it),
+	// so that going back and forth between heights doesn't create them again.
+	private HashMap< Integer, Font > fonts = new HashMap< Integer, Font >();
+	private HashMap< Font, FontMetrics > fontMetrics = new HashMap< Font, FontMetrics >();
+	// The glyphs of the strings drawn, keyed by font, so those of each height are kept when the height changes.
+	private TextLayoutCache textLayouts = new TextLayoutCache();
+	{
+		fonts.put( fontHeight, font );
+	}
 	public void setFontHeight( int h ) {
+		if ( h == fontHeight )
+			return;
 		fontHeight = h;
-		font = new Font( "Sans-serif", Font.BOLD, fontHeight );
-		fontMetrics = null;
+		font = fonts.get( h );
+		if ( font == null ) {
+			font = new Font( "Sans-serif", Font.BOLD, fontHeight );
+			fonts.put( h, font );
+		}
 	}
 	public int getFontHeight() {
 		return fontHeight;
@@ -81,6 +127,24 @@ class GraphicsWrapper {
 	public Point2D convertWorldSpaceUnitsToPixels( Point2D p ) { return new Point2D(convertWorldSpaceUnitsToPixelsX(p.x()),convertWorldSpaceUnitsToPixelsY(p.y())); }
 
 	public float getScaleFactorInWorldSpaceUnitsPerPixel() { return scaleFactorInWorldSpaceUnitsPerPixel; }
+	public float getOffsetXInPixels() { return offsetXInPixels; }
+	public float getOffsetYInPixels() { return offsetYInPixels; }
+
+	// Sets r to the part of the window being drawn, in pixels:
+	// all of it, or less if the Graphics is clipped (e.g. when Swing repaints part of the window).
+	private Rectangle clipBounds = new Rectangle();
+	public void getVisibleRectangleInPixels( Rectangle r ) {
+		r.setBounds( 0, 0, windowWidthInPixels, windowHeightInPixels );
+		if ( g2 == null )
+			return;
+		boolean wasInWorldSpaceUnits = isCoordinateSystemWorldSpaceUnits;
+		setCoordinateSystemToPixels();
+		clipBounds.setBounds( r );
+		g2.getClipBounds( clipBounds ); // left unchanged if there's no clip
+		if ( wasInWorldSpaceUnits )
+			setCoordinateSystemToWorldSpaceUnits();
+		SwingUtilities.computeIntersection( clipBounds.x, clipBounds.y, clipBounds.width, clipBounds.height, r );
+	}
 
 	public void pan( float dx, float dy ) {
 		offsetXInPixels += dx;
@@ -184,19 +248,22 @@ class GraphicsWrapper {
 		}
 	}
 
+	// Reused by setCoordinateSystemToWorldSpaceUnits(), which is called several times per frame.
+	private AffineTransform worldSpaceTransform = new AffineTransform();
+	private boolean isCoordinateSystemWorldSpaceUnits = false;
+
 	public void setCoordinateSystemToPixels() {
-		AffineTransform transform = new AffineTransform();
 		g2.setTransform(originalTransform);
-		g2.transform(transform);
+		isCoordinateSystemWorldSpaceUnits = false;
 	}
 
 	public void setCoordinateSystemToWorldSpaceUnits() {
-		AffineTransform transform = new AffineTransform();
-		transform.translate( offsetXInPixels, offsetYInPixels );
+		isCoordinateSystemWorldSpaceUnits = true;
+		worldSpaceTransform.setTransform( originalTransform );
+		worldSpaceTransform.translate( offsetXInPixels, offsetYInPixels );
 		float s = 1.0f/scaleFactorInWorldSpaceUnitsPerPixel;
-		transform.scale( s, s );
-		g2.setTransform(originalTransform);
-		g2.transform(transform);
+		worldSpaceTransform.scale( s, s );
+		g2.setTransform(worldSpaceTransform);
 	}
 
 	public void clear( float r, float g, float b ) {
@@ -214,24 +281,90 @@ class GraphicsWrapper {
 	public void disableAlphaBlending() {
 	}
 
+	// The colors used so far, so that setting a color doesn't create a new Color each time.
+	// This is a hash table with open addressing (linear probing), keyed by the packed RGBA value,
+	// as returned by Color.getRGB(), of each color; 0 (transparent black) marks an empty slot,
+	// so that color is kept apart.
+	private int [] colorKeys = new int[ 64 ]; // the length is a power of 2
+	private Color [] colorValues = new Color[ colorKeys.length ];
+	private int numColors = 0;
+	private static final Color TRANSPARENT_BLACK = new Color( 0, 0, 0, 0 );
+
+	private Color getColor( int argb ) {
+		if ( argb == 0 )
+			return TRANSPARENT_BLACK;
+		int mask = colorKeys.length - 1;
+		int i = ( argb * 0x9E3779B9 ) >>> 16 & mask;
+		while ( colorKeys[ i ] != 0 ) {
+			if ( colorKeys[ i ] == argb )
+				return colorValues[ i ];
+			i = ( i + 1 ) & mask;
+		}
+		Color color = new Color( argb, true );
+		colorKeys[ i ] = argb;
+		colorValues[ i ] = color;
+		if ( ++numColors * 2 > colorKeys.length ) {
+			// grow, keeping the table at most half full
+			int [] oldKeys = colorKeys;
+			Color [] oldValues = colorValues;
+			colorKeys = new int[ oldKeys.length * 2 ];
+			colorValues = new Color[ colorKeys.length ];
+			mask = colorKeys.length - 1;
+			for ( int j = 0; j < oldKeys.length; ++j ) {
+				if ( oldKeys[ j ] == 0 )
+					continue;
+				int k = ( oldKeys[ j ] * 0x9E3779B9 ) >>> 16 & mask;
+				while ( colorKeys[ k ] != 0 )
+					k = ( k + 1 ) & mask;
+				colorKeys[ k ] = oldKeys[ j ];
+				colorValues[ k ] = oldValues[ j ];
+			}
+		}
+		return color;
+	}
+
+	// Converts a component in [0,1] to [0,255], rounding as java.awt.Color does.
+	private static int toByte( float component ) {
+		if ( ! ( 0 <= component && component <= 1 ) )
+			throw new IllegalArgumentException( "Color parameter outside of expected range" );
+		return (int)( component * 255 + 0.5 );
+	}
+
 	public void setColor( float r, float g, float b ) {
-		g2.setColor( new Color( r, g, b ) );
+		setColor( r, g, b, 1 );
 	}
 
 	public void setColor( float r, float g, float b, float alpha ) {
-		g2.setColor( new Color( r, g, b, alpha ) );
+		g2.setColor( getColor( toByte( alpha ) << 24 | toByte( r ) << 16 | toByte( g ) << 8 | toByte( b ) ) );
 	}
 
 	public void setColor( Color c ) {
-		setColor( c.getRed()/255.0f, c.getGreen()/255.0f, c.getBlue()/255.0f, c.getAlpha()/255.0f );
+		g2.setColor( c );
 	}
 
 	public void setColor( Color c, float alpha ) {
-		setColor( c.getRed()/255.0f, c.getGreen()/255.0f, c.getBlue()/255.0f, alpha );
+		g2.setColor( getColor( toByte( alpha ) << 24 | ( c.getRGB() & 0xFFFFFF ) ) );
 	}
 
+	// The strokes used so far, one per line width; there are only ever a few.
+	private float [] strokeWidths = new float[ 4 ];
+	private BasicStroke [] strokes = new BasicStroke[ strokeWidths.length ];
+	private int numStrokes = 0;
+
 	public void setLineWidth( float width ) {
-		g2.setStroke( new BasicStroke( width ) );
+		for ( int i = 0; i < numStrokes; ++i ) {
+			if ( strokeWidths[ i ] == width ) {
+				g2.setStroke( strokes[ i ] );
+				return;
+			}
+		}
+		if ( numStrokes == strokes.length ) {
+			strokeWidths = Arrays.copyOf( strokeWidths, numStrokes * 2 );
+			strokes = Arrays.copyOf( strokes, numStrokes * 2 );
+		}
+		strokeWidths[ numStrokes ] = width;
+		strokes[ numStrokes ] = new BasicStroke( width );
+		g2.setStroke( strokes[ numStrokes++ ] );
 	}
 
 	public void drawLine( float x1, float y1, float x2, float y2 ) {
@@ -270,6 +403,25 @@ class GraphicsWrapper {
 		drawPolyline( points, true, true );
 	}
 
+	// Rectangles of one color can be filled in a single call to Java2D, instead of one call each:
+	// beginRectangles(), then addRectangle() for each, then fillRectangles() with the color set.
+	// The path is reused, so this doesn't allocate once it has grown to the largest batch.
+	private Path2D.Float rectangles = new Path2D.Float( Path2D.WIND_NON_ZERO, 1024 );
+	public void beginRectangles() {
+		rectangles.reset();
+	}
+	public void addRectangle( float x, float y, float w, float h ) {
+		rectangles.moveTo( x, y );
+		rectangles.lineTo( x + w, y );
+		rectangles.lineTo( x + w, y + h );
+		rectangles.lineTo( x, y + h );
+		rectangles.closePath();
+	}
+	public void fillRectangles() {
+		g2.fill( rectangles );
+		rectangles.reset();
+	}
+
 	public void drawRect( float x, float y, float w, float h, boolean isFilled ) {
 		if ( isFilled ) fillRect( x, y, w, h );
 		else drawRect( x, y, w, h );
@@ -285,6 +437,11 @@ class GraphicsWrapper {
 		g2.fill( rectangle2D );
 	}
 
+	// Draws the image scaled to the given rectangle.
+	public void drawImage( Image image, float x, float y, float w, float h ) {
+		g2.drawImage( image, Math.round( x ), Math.round( y ), Math.round( x + w ) - Math.round( x ), Math.round( y + h ) - Math.round( y ), null );
+	}
+
 	public void drawCircle( float x, float y, float radius, boolean isFilled ) {
 		ellipse2D.setFrame( x, y, 2*radius, 2*radius );
 		if ( isFilled ) g2.fill( ellipse2D );
@@ -342,14 +499,17 @@ class GraphicsWrapper {
 
 
 	// returns the width of a string
+	// (FontMetrics already caches the advances of the glyphs, which is faster than looking up a layout)
 	public float stringWidth( String s ) {
 		if ( s == null || s.length() == 0 ) return 0;
-		if ( fontMetrics == null ) {
+		FontMetrics metrics = fontMetrics.get( font );
+		if ( metrics == null ) {
 			assert g2 != null;
 			if ( g2 == null ) return 0;
-			fontMetrics = g2.getFontMetrics( font );
+			metrics = g2.getFontMetrics( font );
+			fontMetrics.put( font, metrics );
 		}
-		return fontMetrics.stringWidth( s );
+		return metrics.stringWidth( s );
 	}
 
 
@@ -359,9 +519,8 @@ class GraphicsWrapper {
 	) {
 		if ( s == null || s.length() == 0 ) return;
 
-		g2.setFont( font );
-		g2.drawString(
-			s, x, y
+		g2.drawGlyphVector(
+			textLayouts.get( s, font, g2.getFontRenderContext() ), x, y
 		);
 	}
 
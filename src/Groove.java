@@ -0,0 +1,72 @@
+
+import java.util.Random;
+
+// Swing, and humanization of timing and velocity, applied to notes as they are played,
+// without changing the score.
+//
+// Swing delays every odd beat by a fraction of a beat.
+// Humanization adds small random offsets to the time and velocity of each note;
+// the offsets are drawn ahead of time, from a seeded generator, into tables that playback cycles through,
+// so nothing is allocated (and no generator is locked) while notes are being played,
+// and a given seed always gives the same performance.
+//
+// Settings may be changed from any thread; the tables are then rebuilt and replaced as a whole.
+// Offsets are taken by a single thread (the one playing the session).
+public class Groove {
+
+	public static final int TABLE_SIZE = 1024; // a power of 2
+
+	private final long seed;
+	private volatile double swing = 0; // in beats
+	private volatile int [] timingOffsets = new int[ TABLE_SIZE ]; // in microseconds
+	private volatile int [] velocityOffsets = new int[ TABLE_SIZE ];
+	private int nextOffset = 0;
+
+	public Groove( long seed ) {
+		this.seed = seed;
+	}
+
+	public double getSwing() { return swing; }
+	// 1/3 of a beat gives triplet swing; 0 plays straight.
+	public void setSwing( double beats ) {
+		if ( 0 <= beats && beats < 1 )
+			swing = beats;
+	}
+
+	// Offsets are drawn from a normal distribution with the given standard deviations,
+	// and clamped to twice those.
+	public void setHumanize( int timingDeviationInMicroseconds, int velocityDeviation ) {
+		Random random = new Random( seed );
+		int [] newTimingOffsets = new int[ TABLE_SIZE ];
+		int [] newVelocityOffsets = new int[ TABLE_SIZE ];
+		for ( int i = 0; i < TABLE_SIZE; ++i ) {
+			newTimingOffsets[ i ] = clampedGaussian( random, timingDeviationInMicroseconds );
+			newVelocityOffsets[ i ] = clampedGaussian( random, velocityDeviation );
+		}
+		timingOffsets = newTimingOffsets;
+		velocityOffsets = newVelocityOffsets;
+	}
+
+	private static int clampedGaussian( Random random, int deviation ) {
+		double x = Math.max( -2, Math.min( 2, random.nextGaussian() ) );
+		return (int)Math.round( x * deviation );
+	}
+
+	// How much later than its deadline the given beat should sound.
+	public long getSwingDelayInNanoseconds( int beat, long nanosecondsPerBeat ) {
+		return ( beat & 1 ) == 0 ? 0 : Math.round( swing * nanosecondsPerBeat );
+	}
+
+	// Moves on to the offsets of the next note.
+	public void nextNote() {
+		nextOffset = ( nextOffset + 1 ) & ( TABLE_SIZE - 1 );
+	}
+	public int getTimingOffsetInMicroseconds() {
+		return timingOffsets[ nextOffset ];
+	}
+	// Returns the given velocity, humanized, in [1,127] (a velocity of 0 would turn the note off).
+	public int getVelocity( int velocity ) {
+		return Math.max( 1, Math.min( 127, velocity + velocityOffsets[ nextOffset ] ) );
+	}
+
+}
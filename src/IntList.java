@@ -0,0 +1,29 @@
+
+import java.util.Arrays;
+
+// A growable list of ints, used to return query results
+// without boxing and without allocating once the list has grown large enough.
+public class IntList {
+
+	private int [] values;
+	private int size = 0;
+
+	public IntList() {
+		values = new int[ 16 ];
+	}
+	public IntList( int initialCapacity ) {
+		values = new int[ Math.max( 1, initialCapacity ) ];
+	}
+
+	public int size() { return size; }
+	public boolean isEmpty() { return size == 0; }
+	public int get( int i ) { return values[ i ]; }
+	public void clear() { size = 0; }
+
+	public void add( int value ) {
+		if ( size == values.length )
+			values = Arrays.copyOf( values, 2 * values.length );
+		values[ size++ ] = value;
+	}
+
+}
@@ -0,0 +1,103 @@
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counts durations in buckets, as HdrHistogram does: each power of two nanoseconds, [ 2^k, 2^(k+1) ),
+// is split into SUB_BUCKETS_PER_OCTAVE buckets of equal width, and durations under SUB_BUCKETS_PER_OCTAVE nanoseconds have a bucket each.
+// Recording a duration is a few atomic operations, without locks or allocation, so any number of threads may record at once,
+// including the playback thread.
+//
+// Percentiles are known to within 1/SUB_BUCKETS_PER_OCTAVE of their value: they're reported as the upper end of their bucket,
+// clamped to the largest duration recorded.
+public class LatencyHistogram {
+
+	public static final int SUB_BUCKET_BITS = 4;
+	public static final int SUB_BUCKETS_PER_OCTAVE = 1 << SUB_BUCKET_BITS;
+	// Enough for any non-negative long: the octaves from 2^SUB_BUCKET_BITS to 2^62 have SUB_BUCKETS_PER_OCTAVE buckets each,
+	// after the SUB_BUCKETS_PER_OCTAVE exact buckets below them.
+	public static final int NUM_BUCKETS = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS_PER_OCTAVE;
+
+	private final AtomicLongArray counts = new AtomicLongArray( NUM_BUCKETS );
+	private final AtomicLong sumInNanoseconds = new AtomicLong();
+	private final AtomicLong maxInNanoseconds = new AtomicLong();
+
+	// Negative durations (e.g. from clocks of different resolution) are counted as 0.
+	public void record( long nanoseconds ) {
+		if ( nanoseconds < 0 )
+			nanoseconds = 0;
+		counts.incrementAndGet( getBucket( nanoseconds ) );
+		sumInNanoseconds.addAndGet( nanoseconds );
+		long max;
+		while ( nanoseconds > ( max = maxInNanoseconds.get() ) && ! maxInNanoseconds.compareAndSet( max, nanoseconds ) )
+			;
+	}
+
+	// In the octave [ 2^k, 2^(k+1) ), the duration shifted right by k - SUB_BUCKET_BITS is in
+	// [ SUB_BUCKETS_PER_OCTAVE, 2*SUB_BUCKETS_PER_OCTAVE ), and gives the sub-bucket;
+	// the octaves follow each other every SUB_BUCKETS_PER_OCTAVE buckets.
+	private static int getBucket( long nanoseconds ) {
+		if ( nanoseconds < SUB_BUCKETS_PER_OCTAVE )
+			return (int)nanoseconds;
+		int shift = 63 - Long.numberOfLeadingZeros( nanoseconds ) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS_PER_OCTAVE + (int)( nanoseconds >>> shift );
+	}
+
+	// The largest duration counted in the given bucket.
+	private static long getUpperEnd( int bucket ) {
+		if ( bucket < SUB_BUCKETS_PER_OCTAVE )
+			return bucket;
+		if ( bucket == NUM_BUCKETS - 1 )
+			return Long.MAX_VALUE;
+		int shift = bucket / SUB_BUCKETS_PER_OCTAVE - 1;
+		long subBucket = bucket - shift * SUB_BUCKETS_PER_OCTAVE;
+		return ( ( subBucket + 1 ) << shift ) - 1;
+	}
+
+	public long getCount() {
+		long n = 0;
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+			n += counts.get( i );
+		return n;
+	}
+	public long getCount( int bucket ) { return counts.get( bucket ); }
+	public long getMaxInNanoseconds() { return maxInNanoseconds.get(); }
+	public long getMeanInNanoseconds() {
+		long n = getCount();
+		return n == 0 ? 0 : sumInNanoseconds.get() / n;
+	}
+
+	// Returns the duration under which the given fraction (in [0,1]) of the durations fall, or 0 if none was recorded.
+	public long getPercentileInNanoseconds( double fraction ) {
+		long n = getCount();
+		if ( n == 0 )
+			return 0;
+		long rank = Math.max( 1, (long)Math.ceil( fraction * n ) );
+		long seen = 0;
+		for ( int i = 0; i < NUM_BUCKETS; ++i ) {
+			seen += counts.get( i );
+			if ( seen >= rank ) {
+				return Math.min( getUpperEnd( i ), getMaxInNanoseconds() );
+			}
+		}
+		return getMaxInNanoseconds();
+	}
+
+	// Returns a copy, which doesn't change as more durations are recorded.
+	// Durations recorded during the copy may be counted in some of its totals and not in others.
+	public LatencyHistogram snapshot() {
+		LatencyHistogram copy = new LatencyHistogram();
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+			copy.counts.set( i, counts.get( i ) );
+		copy.sumInNanoseconds.set( sumInNanoseconds.get() );
+		copy.maxInNanoseconds.set( maxInNanoseconds.get() );
+		return copy;
+	}
+
+	public void reset() {
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+			counts.set( i, 0 );
+		sumInNanoseconds.set( 0 );
+		maxInNanoseconds.set( 0 );
+	}
+
+}
@@ -0,0 +1,115 @@
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.*;
+
+// Sends notes to a synthesizer through its Receiver, with timestamps,
+// so that the synthesizer's own clock decides exactly when each note sounds.
+//
+// The playback thread wakes up a ``lookahead'' before each beat is due,
+// and sends all the notes of the beat in one batch, stamped with the beat's deadline.
+// As long as the thread wakes up less than the lookahead late,
+// the notes sound on time regardless of thread scheduling.
+// Notes sent without a timestamp (e.g. when the user rolls over a pitch) are played immediately.
+// Notes may be sent from any thread.
+//
+// A MidiOutput may also wrap any Receiver (e.g. a MIDI port, or one for testing);
+// having no clock to refer to, it then sends every note immediately.
+// Such a receiver may keep the messages it is sent (e.g. to queue or record them), so each one gets a message of its own.
+public class MidiOutput {
+
+	private static final int CHANNEL = 0;
+
+	private Synthesizer synthesizer; // null if only a receiver was given
+	private Receiver receiver = null;
+	private MidiChannel midiChannel = null; // used if the synthesizer has no receiver
+
+	// Reused for every message sent to the synthesizer's own receiver, which copies the bytes of each message it is sent.
+	private ShortMessage message = new ShortMessage();
+	private boolean isMessageReused = false;
+
+	private volatile long lookaheadInNanoseconds = Constant.MIDI_LOOKAHEAD_IN_MILLISECONDS * BeatScheduler.NANOSECONDS_PER_MILLISECOND;
+
+	// How long before its deadline the last batch was sent (negative if it was sent late).
+	private volatile long lastLeadInNanoseconds = 0;
+	private volatile long minLeadInNanoseconds = Long.MAX_VALUE;
+	private volatile long numLateBatches = 0;
+
+	public MidiOutput( Synthesizer synthesizer ) {
+		this.synthesizer = synthesizer;
+		try {
+			receiver = synthesizer.getReceiver();
+			isMessageReused = true;
+		} catch ( MidiUnavailableException e ) {
+			Logger.getLogger( MidiOutput.class.getName() ).log( Level.WARNING, null, e );
+			midiChannel = synthesizer.getChannels()[ CHANNEL ];
+		}
+	}
+
+	public MidiOutput( Receiver receiver ) {
+		this.receiver = receiver;
+	}
+
+	// Returns true if notes are timestamped, i.e. if it is any use sending them ahead of time.
+	public boolean isTimestamped() { return synthesizer != null && receiver != null; }
+
+	public long getLookaheadInNanoseconds() { return lookaheadInNanoseconds; }
+	public void setLookaheadInNanoseconds( long n ) {
+		if ( n >= 0 )
+			lookaheadInNanoseconds = n;
+	}
+
+	public long getLastLeadInNanoseconds() { return lastLeadInNanoseconds; }
+	public long getMinLeadInNanoseconds() { return minLeadInNanoseconds; }
+	public long getNumLateBatches() { return numLateBatches; }
+
+	// The latency of the synthesizer itself, between processing a message and the sound coming out.
+	public long getSynthesizerLatencyInMicroseconds() { return synthesizer == null ? 0 : synthesizer.getLatency(); }
+
+	// Returns the timestamp, on the synthesizer's clock (in microseconds),
+	// of the given deadline on the System.nanoTime() clock,
+	// to be passed with all the notes of the batch due at that time.
+	// A deadline that is already past gives the current time.
+	public long getTimestamp( long deadlineInNanoseconds ) {
+		long now = System.nanoTime();
+		long lead = deadlineInNanoseconds - now;
+		lastLeadInNanoseconds = lead;
+		if ( lead < minLeadInNanoseconds )
+			minLeadInNanoseconds = lead;
+		if ( lead < 0 ) {
+			++numLateBatches;
+			lead = 0;
+		}
+		return isTimestamped() ? synthesizer.getMicrosecondPosition() + lead / 1000 : -1;
+	}
+
+	public void noteOn( int midiNoteNumber, int velocity ) {
+		send( ShortMessage.NOTE_ON, midiNoteNumber, velocity, -1 );
+	}
+	public void noteOn( int midiNoteNumber, int velocity, long timestamp ) {
+		send( ShortMessage.NOTE_ON, midiNoteNumber, velocity, timestamp );
+	}
+
+	public void noteOff( int midiNoteNumber ) {
+		send( ShortMessage.NOTE_OFF, midiNoteNumber, 0, -1 );
+	}
+	public void noteOff( int midiNoteNumber, long timestamp ) {
+		send( ShortMessage.NOTE_OFF, midiNoteNumber, 0, timestamp );
+	}
+
+	private synchronized void send( int command, int midiNoteNumber, int velocity, long timestamp ) {
+		if ( receiver == null ) {
+			if ( command == ShortMessage.NOTE_ON ) midiChannel.noteOn( midiNoteNumber, velocity );
+			else midiChannel.noteOff( midiNoteNumber );
+			return;
+		}
+		try {
+			ShortMessage m = isMessageReused ? message : new ShortMessage();
+			m.setMessage( command, CHANNEL, midiNoteNumber, velocity );
+			receiver.send( m, timestamp );
+		} catch ( InvalidMidiDataException e ) {
+			Logger.getLogger( MidiOutput.class.getName() ).log( Level.SEVERE, null, e );
+		}
+	}
+
+}
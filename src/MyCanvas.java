@@ -0,0 +1,1113 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import javax.swing.BorderFactory;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+
+
+class MyCanvas extends JPanel implements KeyListener, MouseListener, MouseMotionListener, Runnable {
+
+	SimplePianoRoll simplePianoRoll;
+	GraphicsWrapper gw = new GraphicsWrapper();
+
+	// The score being edited. Only the event dispatching thread reads or writes it.
+	Score score = new Score();
+
+	// A read-only snapshot of the score, for the playback thread.
+	// The event dispatching thread publishes a new one after each batch of edits,
+	// so the playback thread never waits on a lock, and editing never delays a beat.
+	volatile Score playbackScore = score.snapshot();
+	// Publishes the snapshot SCORE_PUBLISH_INTERVAL_IN_MILLISECONDS after the first edit not published yet (see publishScore()).
+	Timer publishTimer = new Timer( Constant.SCORE_PUBLISH_INTERVAL_IN_MILLISECONDS, new ActionListener() {
+		public void actionPerformed( ActionEvent e ) {
+			publishScoreNow();
+		}
+	} );
+
+	Metronome metronome = new Metronome();
+
+	// Used instead of the playback thread to play the notes
+	// when playback is sequenced; null if there is no synthesizer.
+	ScoreSequencer scoreSequencer = null;
+	volatile boolean isPlaybackSequenced = false;
+	// When the sequencer was last started (from the start of the loop region), as System.nanoTime().
+	volatile long sequencerStartTime = 0;
+	// The time cursor of sequenced playback follows the clock through the tempo map (see getSequencedBeat()):
+	// the time at which beat 0 would have started, and the tempo map and start of the sequencer this was computed for.
+	// These are only used by the playback thread.
+	private long sequencedTimeOfBeatZero = 0;
+	private TempoMap sequencedTempoMap = null;
+	private long sequencedStartTime = 0;
+	private double sequencedBeat = 0;
+
+	// Sends the notes to the synthesizer, ahead of time when they belong to a beat;
+	// null if there is no synthesizer.
+	MidiOutput midiOutput = null;
+	
+	Thread thread = null;
+	volatile boolean threadSuspended;
+
+	volatile int currentBeat = 0;
+	// Plays the beats paced by the playback thread; created along with midiOutput.
+	PlaybackSession playbackSession;
+	Groove groove = new Groove( Constant.GROOVE_SEED );
+	BeatScheduler beatScheduler = new BeatScheduler( score.tempoMap.getNanosecondsPerBeat( 0 ) );
+	private int elapsedBeats = 1; // only used by the playback thread
+
+	public static final int RADIAL_MENU_PLAY = 0;
+	public static final int RADIAL_MENU_STOP = 1;
+	public static final int RADIAL_MENU_DRAW = 2;
+	public static final int RADIAL_MENU_ERASE = 3;
+
+	public static final int CONTROL_MENU_ZOOM = 0;
+	public static final int CONTROL_MENU_PAN = 1;
+	public static final int CONTROL_MENU_TEMPO = 2;
+	public static final int CONTROL_MENU_TOTAL_DURATION = 3;
+	public static final int CONTROL_MENU_TRANSPOSE = 4;
+	public static final int CONTROL_MENU_LOOP_START = 5;
+	public static final int CONTROL_MENU_LOOP_END = 6;
+	public static final int CONTROL_MENU_TEMPO_CHANGE = 7;
+
+	RadialMenuWidget radialMenu = new RadialMenuWidget();
+	ControlMenuWidget controlMenu = new ControlMenuWidget();
+
+	int mouse_x, mouse_y, old_mouse_x, old_mouse_y;
+
+	boolean isControlKeyDown = false;
+
+	int beatOfMouseCursor = -1; // -1 for none
+	int midiNoteNumberOfMouseCurser = -1; // -1 for none
+
+	// The datatip is drawn where the mouse was when the cursor last moved to another cell.
+	int datatip_x, datatip_y;
+	Rectangle datatipBounds = new Rectangle(); // in pixels, empty if there's no datatip
+
+	private static final Color BACKGROUND_COLOR = new Color( 0.4f, 0.4f, 0.4f );
+	ScoreBackground scoreBackground = new ScoreBackground( BACKGROUND_COLOR );
+	NoteTileCache noteTiles = new NoteTileCache( Constant.NOTE_TILE_CACHE_BUDGET_IN_BYTES );
+	// Draws the score on a thread of its own, when started (see setRenderedInBackground()).
+	FrameRenderer frameRenderer = new FrameRenderer( this, BACKGROUND_COLOR );
+	// Shows a bitmap of the score while the user pans or zooms.
+	GestureView gestureView = new GestureView( this, BACKGROUND_COLOR, Constant.GESTURE_IDLE_IN_MILLISECONDS );
+	// Paint durations, event queue delays and beat to pixel latencies, shown over the score if View > Show Frame Statistics is on.
+	FrameStats frameStats = new FrameStats();
+
+	private ArrayList<String> lines;
+	private Charset charset;
+	private Path target;
+	private File f;
+	private Sequence s;
+
+	int majorNotesTab[] = {0, 2, 4, 5, 7, 9, 11};
+	int pentatonicNOtesTab[] = {0, 2, 4, 7, 9};
+
+	public MyCanvas( SimplePianoRoll sp ) {
+
+		publishTimer.setRepeats( false );
+		target = Paths.get("notes.txt");
+		charset = Charset.forName("US-ASCII");
+		lines = new ArrayList<>();
+
+		simplePianoRoll = sp;
+		setBorder( BorderFactory.createLineBorder( Color.black ) );
+		setBackground( Color.white );
+		addKeyListener( this );
+		addMouseListener( this );
+		addMouseMotionListener( this );
+
+		radialMenu.setItemLabelAndID( RadialMenuWidget.CENTRAL_ITEM, "",            RADIAL_MENU_STOP );
+		radialMenu.setItemLabelAndID( 1,                             "Stop Music",  RADIAL_MENU_STOP );
+		radialMenu.setItemLabelAndID( 3,                             "Draw Notes",  RADIAL_MENU_DRAW );
+		radialMenu.setItemLabelAndID( 5,                             "Play Music",  RADIAL_MENU_PLAY );
+		radialMenu.setItemLabelAndID( 7,                             "Erase Notes", RADIAL_MENU_ERASE );
+
+		controlMenu.setItemLabelAndID( ControlMenuWidget.CENTRAL_ITEM, "", -1 );
+		controlMenu.setItemLabelAndID( 1, "Tempo", CONTROL_MENU_TEMPO );
+		controlMenu.setItemLabelAndID( 2, "Pan", CONTROL_MENU_PAN );
+		controlMenu.setItemLabelAndID( 3, "Zoom", CONTROL_MENU_ZOOM );
+		controlMenu.setItemLabelAndID( 4, "Loop Start", CONTROL_MENU_LOOP_START );
+		controlMenu.setItemLabelAndID( 5, "Total Duration", CONTROL_MENU_TOTAL_DURATION );
+		controlMenu.setItemLabelAndID( 6, "Loop End", CONTROL_MENU_LOOP_END );
+		controlMenu.setItemLabelAndID( 7, "Transpose", CONTROL_MENU_TRANSPOSE );
+		controlMenu.setItemLabelAndID( 8, "Tempo Change", CONTROL_MENU_TEMPO_CHANGE );
+
+		gw.frame( score.getBoundingRectangle(), false );
+
+		if ( Constant.USE_SOUND && sp.synthesizer != null )
+			midiOutput = new MidiOutput( sp.synthesizer );
+		playbackSession = new PlaybackSession( playbackScore, midiOutput );
+		playbackSession.setGroove( groove );
+		score.addScoreListener( noteTiles );
+		score.addScoreListener( frameRenderer );
+		if ( Constant.USE_SOUND && sp.synthesizer != null ) {
+			scoreSequencer = new ScoreSequencer( sp.synthesizer );
+			score.addScoreListener( scoreSequencer );
+		}
+	}
+	public Dimension getPreferredSize() {
+		return new Dimension( Constant.INITIAL_WINDOW_WIDTH, Constant.INITIAL_WINDOW_HEIGHT );
+	}
+	public void clear() {
+		score.clear();
+		publishScore();
+		repaint();
+	}
+	public void clearLoopRegion() {
+		score.clearLoopRegion();
+		publishScore();
+		repaint();
+	}
+
+	// Makes the current state of the score visible to the playback thread, and to frameRenderer, shortly.
+	// This should be called from the event dispatching thread after each batch of edits.
+	// The first edit after a snapshot copies the notes, so rather than taking a snapshot for every mouse event
+	// of a drag, the edits made within SCORE_PUBLISH_INTERVAL_IN_MILLISECONDS are published together.
+	public void publishScore() {
+		if ( ! publishTimer.isRunning() )
+			publishTimer.start();
+	}
+	// Publishes the pending edits right away, e.g. before playback starts.
+	public void publishScoreNow() {
+		publishTimer.stop();
+		playbackScore = score.snapshot();
+		playbackSession.setScore( playbackScore );
+		frameRenderer.setScore( playbackScore );
+	}
+	public void frameAll() {
+		gw.frame( score.getBoundingRectangle(), false );
+		repaint();
+	}
+	public void paintComponent( Graphics g ) {
+		long paintStartTime = System.nanoTime();
+		super.paintComponent( g );
+		gw.set( g );
+		if ( getWidth() != gw.getWidth() || getHeight() != gw.getHeight() )
+			gw.resize( getWidth(), getHeight() );
+		// the window is cleared by scoreBackground
+		gw.setupForDrawing();
+		gw.setCoordinateSystemToWorldSpaceUnits();
+		gw.enableAlphaBlending();
+
+		boolean isFrameDrawn = false;
+		if ( gestureView.isActive() ) {
+			gestureView.draw(
+				gw,
+				score,
+				scoreBackground,
+				noteTiles,
+				simplePianoRoll.highlightMajorScale,
+				midiNoteNumberOfMouseCurser,
+				beatOfMouseCursor,
+				currentBeat
+			);
+			isFrameDrawn = true;
+		}
+		else if ( frameRenderer.isRunning() ) {
+			frameRenderer.requestFrame(
+				gw,
+				simplePianoRoll.highlightMajorScale,
+				midiNoteNumberOfMouseCurser,
+				beatOfMouseCursor,
+				currentBeat
+			);
+			isFrameDrawn = frameRenderer.drawLatestFrame( gw );
+		}
+		if ( ! isFrameDrawn ) {
+			score.draw(
+				gw,
+				scoreBackground,
+				noteTiles,
+				simplePianoRoll.highlightMajorScale,
+				midiNoteNumberOfMouseCurser,
+				beatOfMouseCursor,
+				currentBeat
+			);
+		}
+
+		gw.setCoordinateSystemToPixels();
+
+		if ( radialMenu.isVisible() )
+			radialMenu.draw( gw );
+		if ( controlMenu.isVisible() )
+			controlMenu.draw( gw );
+
+		if ( ! radialMenu.isVisible() && ! controlMenu.isVisible() ) {
+			// draw datatip
+			if ( midiNoteNumberOfMouseCurser >= 0 && beatOfMouseCursor >= 0 ) {
+				String s = getDatatipText();
+				int x0 = datatip_x + DATATIP_X_OFFSET;
+				int y0 = datatip_y - RadialMenuWidget.textHeight - 2*DATATIP_MARGIN;
+				int height = RadialMenuWidget.textHeight + 2*DATATIP_MARGIN;
+				int width = Math.round( gw.stringWidth( s ) + 2*DATATIP_MARGIN );
+				gw.setColor( 0, 0, 0, 0.6f );
+				gw.fillRect( x0, y0, width, height );
+				gw.setColor( 1, 1, 1 );
+				gw.drawRect( x0, y0, width, height );
+				gw.drawString( x0 + DATATIP_MARGIN, datatip_y - DATATIP_MARGIN, s );
+			}
+		}
+
+		if ( simplePianoRoll.isFrameStatsShown )
+			frameStats.draw( gw );
+		frameStats.framePainted( paintStartTime, isTimeCursorInClip( g ) );
+	}
+
+	private Rectangle clipBounds = new Rectangle();
+
+	// Returns true if the clip of the given Graphics, i.e. the parts of the canvas being repainted,
+	// covers the visible part of the time cursor.
+	private boolean isTimeCursorInClip( Graphics g ) {
+		clipBounds.setBounds( 0, 0, getWidth(), getHeight() ); // kept if there's no clip
+		g.getClipBounds( clipBounds );
+		int beat = currentBeat;
+		int x0 = Math.max( 0, gw.convertWorldSpaceUnitsToPixelsX( beat + 0.45f ) );
+		int x1 = Math.min( getWidth(), Math.max( x0 + 1, gw.convertWorldSpaceUnitsToPixelsX( beat + 0.55f ) ) ); // at least a pixel wide
+		int y0 = Math.max( 0, gw.convertWorldSpaceUnitsToPixelsY( -score.numPitches ) );
+		int y1 = Math.min( getHeight(), gw.convertWorldSpaceUnitsToPixelsY( 0 ) );
+		return x0 < x1 && y0 < y1
+			&& clipBounds.x <= x0 && x1 <= clipBounds.x + clipBounds.width
+			&& clipBounds.y <= y0 && y1 <= clipBounds.y + clipBounds.height;
+	}
+
+	// When set, the score is drawn by frameRenderer, and paintComponent() only copies its latest frame
+	// and draws the menus and datatip over it.
+	public void setRenderedInBackground( boolean flag ) {
+		if ( flag ) {
+			frameRenderer.start();
+			publishScoreNow(); // the renderer draws the published score
+		}
+		else
+			frameRenderer.stop();
+		repaint();
+	}
+
+	private static final int DATATIP_MARGIN = 5;
+	private static final int DATATIP_X_OFFSET = 15;
+
+	private String getDatatipText() {
+		return score.namesOfPitchClasses[
+			( midiNoteNumberOfMouseCurser - score.midiNoteNumberOfLowestPitch + score.pitchClassOfLowestPitch )
+			% score.numPitchesInOctave
+		];
+	}
+
+	// Instead of repainting the whole canvas, only the parts that changed are repainted:
+	// Swing then clips the next paintComponent() to them.
+	// These may be called from any thread.
+
+	private void repaintWorldSpaceRectangle( float x, float y, float width, float height ) {
+		int x0 = gw.convertWorldSpaceUnitsToPixelsX( x );
+		int y0 = gw.convertWorldSpaceUnitsToPixelsY( y );
+		int x1 = gw.convertWorldSpaceUnitsToPixelsX( x + width );
+		int y1 = gw.convertWorldSpaceUnitsToPixelsY( y + height );
+		// one pixel more on each side, for rounding and antialiasing
+		repaint( x0 - 1, y0 - 1, x1 - x0 + 2, y1 - y0 + 2 );
+	}
+	private void repaintBeat( int beat ) {
+		if ( beat >= 0 )
+			repaintWorldSpaceRectangle( beat, -score.numPitches, 1, score.numPitches );
+	}
+	private void repaintPitch( int midiNoteNumber ) {
+		if ( midiNoteNumber >= 0 )
+			repaintWorldSpaceRectangle( 0, score.midiNoteNumberOfLowestPitch - midiNoteNumber - 1, score.numBeats, 1 );
+	}
+
+	// Repaints what changes when the mouse cursor moves to another cell, from the given one:
+	// the highlighted column and row, and the datatip.
+	private void repaintMouseCursor( int oldBeat, int oldMidiNoteNumber ) {
+		if ( beatOfMouseCursor != oldBeat ) {
+			repaintBeat( oldBeat );
+			repaintBeat( beatOfMouseCursor );
+		}
+		if ( midiNoteNumberOfMouseCurser != oldMidiNoteNumber ) {
+			repaintPitch( oldMidiNoteNumber );
+			repaintPitch( midiNoteNumberOfMouseCurser );
+		}
+		if ( ! datatipBounds.isEmpty() )
+			repaint( datatipBounds );
+		datatip_x = mouse_x;
+		datatip_y = mouse_y;
+		if ( midiNoteNumberOfMouseCurser >= 0 && beatOfMouseCursor >= 0 ) {
+			datatipBounds.setBounds(
+				datatip_x + DATATIP_X_OFFSET,
+				datatip_y - RadialMenuWidget.textHeight - 2*DATATIP_MARGIN,
+				Math.round( gw.stringWidth( getDatatipText() ) + 2*DATATIP_MARGIN ) + 1,
+				RadialMenuWidget.textHeight + 2*DATATIP_MARGIN + 1
+			);
+			repaint( datatipBounds );
+		}
+		else
+			datatipBounds.setBounds( 0, 0, 0, 0 );
+	}
+
+	// Repaints the frame statistics, if shown, after something was recorded.
+	private void repaintFrameStats() {
+		if ( simplePianoRoll.isFrameStatsShown )
+			frameStats.repaint( this );
+	}
+
+	// Repaints the time cursor, which has moved from the given beat.
+	private void repaintTimeCursor( int oldBeat ) {
+		if ( currentBeat != oldBeat ) {
+			repaintBeat( oldBeat );
+			repaintBeat( currentBeat );
+		}
+	}
+
+	public void keyPressed( KeyEvent e ) {
+		if ( e.getKeyCode() == KeyEvent.VK_CONTROL ) {
+			isControlKeyDown = true;
+			if (
+				beatOfMouseCursor>=0
+				&& simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER_IF_SPECIAL_KEY_HELD_DOWN
+			)
+				playNote( midiNoteNumberOfMouseCurser );
+		}
+	}
+	public void keyReleased( KeyEvent e ) {
+		if ( e.getKeyCode() == KeyEvent.VK_CONTROL ) {
+			isControlKeyDown = false;
+			stopPlayingNote( midiNoteNumberOfMouseCurser );
+		}
+	}
+	public void keyTyped( KeyEvent e ) {
+	}
+
+
+	public void mouseClicked( MouseEvent e ) { }
+	public void mouseEntered( MouseEvent e ) { }
+	public void mouseExited( MouseEvent e ) { }
+
+	private void paint( int mouse_x, int mouse_y ) {
+		int newBeatOfMouseCursor = score.getBeatForMouseX( gw, mouse_x );
+		int newMidiNoteNumberOfMouseCurser = score.getMidiNoteNumberForMouseY( gw, mouse_y );
+		if (
+			newBeatOfMouseCursor != beatOfMouseCursor
+			|| newMidiNoteNumberOfMouseCurser != midiNoteNumberOfMouseCurser
+		) {
+			int oldBeat = beatOfMouseCursor;
+			int oldMidiNoteNumber = midiNoteNumberOfMouseCurser;
+			beatOfMouseCursor = newBeatOfMouseCursor;
+			midiNoteNumberOfMouseCurser = newMidiNoteNumberOfMouseCurser;
+			repaintMouseCursor( oldBeat, oldMidiNoteNumber );
+		}
+
+		if ( beatOfMouseCursor >= 0 && midiNoteNumberOfMouseCurser >= 0 ) {
+			if ( simplePianoRoll.dragMode == SimplePianoRoll.DM_DRAW_NOTES ) {
+				if ( ! score.isCellSet( beatOfMouseCursor, midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch ) ) {
+
+					int cureentNote = midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch;
+
+					if( simplePianoRoll.isActivateMajorScale() && !isOnScale(cureentNote+Score.midiNoteNumberOfLowestPitch, Constant.MAJOR_SCALE)){
+						score.setCell( beatOfMouseCursor, midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch, false );
+					}
+					else if( simplePianoRoll.isActivatePentatonicScale() && !isOnScale(cureentNote+Score.midiNoteNumberOfLowestPitch, Constant.PENTATONIC_SCALE) ) {
+						score.setCell( beatOfMouseCursor, midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch, false );
+					}
+					else if( !simplePianoRoll.isActivateMajorScale() || !simplePianoRoll.isActivatePentatonicScale() ){
+						score.setCell( beatOfMouseCursor, midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch, true );
+					}
+					System.out.println("x:"+beatOfMouseCursor+" y:"+(midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch));
+					publishScore();
+					repaint();
+				}
+			}
+			else if ( simplePianoRoll.dragMode == SimplePianoRoll.DM_ERASE_NOTES ) {
+				if ( score.isCellSet( beatOfMouseCursor, midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch ) ) {
+					score.setCell( beatOfMouseCursor, midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch, false );
+					publishScore();
+					repaint();
+				}
+			}
+		}
+	}
+
+	public void mousePressed( MouseEvent e ) {
+		frameStats.eventHandled( e.getWhen() );
+		repaintFrameStats();
+		old_mouse_x = mouse_x;
+		old_mouse_y = mouse_y;
+		mouse_x = e.getX();
+		mouse_y = e.getY();
+
+		isControlKeyDown = e.isControlDown();
+
+		if ( radialMenu.isVisible() || (SwingUtilities.isLeftMouseButton(e) && e.isControlDown()) ) {
+			int returnValue = radialMenu.pressEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( controlMenu.isVisible() || (SwingUtilities.isLeftMouseButton(e) && e.isShiftDown()) ) {
+			int returnValue = controlMenu.pressEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( SwingUtilities.isLeftMouseButton(e) ) {
+			paint( mouse_x, mouse_y );
+		}
+	}
+
+	public void mouseReleased( MouseEvent e ) {
+		frameStats.eventHandled( e.getWhen() );
+		repaintFrameStats();
+		old_mouse_x = mouse_x;
+		old_mouse_y = mouse_y;
+		mouse_x = e.getX();
+		mouse_y = e.getY();
+
+		isControlKeyDown = e.isControlDown();
+
+		if ( radialMenu.isVisible() ) {
+			int returnValue = radialMenu.releaseEvent( mouse_x, mouse_y );
+
+			int itemID = radialMenu.getIDOfSelection();
+			if ( 0 <= itemID ) {
+				switch ( itemID ) {
+					case RADIAL_MENU_PLAY:
+						simplePianoRoll.setMusicPlaying( true );
+						break;
+					case RADIAL_MENU_STOP:
+						simplePianoRoll.setMusicPlaying( false );
+						break;
+					case RADIAL_MENU_DRAW:
+						simplePianoRoll.setDragMode( SimplePianoRoll.DM_DRAW_NOTES );
+						break;
+					case RADIAL_MENU_ERASE:
+						simplePianoRoll.setDragMode( SimplePianoRoll.DM_ERASE_NOTES );
+						break;
+				}
+			}
+
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( controlMenu.isVisible() ) {
+			int returnValue = controlMenu.releaseEvent( mouse_x, mouse_y );
+
+			if ( metronome.active )
+				metronome.stop();
+			gestureView.end();
+			
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+	}
+
+	private void playNote( int midiNoteNumber ) {
+		if ( midiOutput != null && midiNoteNumber >= 0 ) {
+			midiOutput.noteOn(midiNoteNumber,Constant.midiVolume);
+		}
+	}
+	private void stopPlayingNote( int midiNoteNumber ) {
+		if ( midiOutput != null && midiNoteNumber >= 0 ) {
+			midiOutput.noteOff(midiNoteNumber);
+		}
+	}
+
+	public void mouseMoved( MouseEvent e ) {
+		frameStats.eventHandled( e.getWhen() );
+		repaintFrameStats();
+		old_mouse_x = mouse_x;
+		old_mouse_y = mouse_y;
+		mouse_x = e.getX();
+		mouse_y = e.getY();
+
+		requestFocusInWindow();
+
+		isControlKeyDown = e.isControlDown();
+
+		if ( radialMenu.isVisible() ) {
+			int returnValue = radialMenu.moveEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( controlMenu.isVisible() ) {
+			int returnValue = controlMenu.moveEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		else {
+			int newBeatOfMouseCursor = score.getBeatForMouseX( gw, mouse_x );
+			int newMidiNoteNumberOfMouseCurser = score.getMidiNoteNumberForMouseY( gw, mouse_y );
+			int oldBeat = beatOfMouseCursor;
+			int oldMidiNoteNumber = midiNoteNumberOfMouseCurser;
+			if ( newBeatOfMouseCursor != beatOfMouseCursor ) {
+				beatOfMouseCursor = newBeatOfMouseCursor;
+			}
+			if ( newMidiNoteNumberOfMouseCurser != midiNoteNumberOfMouseCurser ) {
+				stopPlayingNote( midiNoteNumberOfMouseCurser );
+				midiNoteNumberOfMouseCurser = newMidiNoteNumberOfMouseCurser;
+				if (
+					beatOfMouseCursor>=0
+					&& (
+						simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER
+						|| (
+							simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER_IF_SPECIAL_KEY_HELD_DOWN
+							&& isControlKeyDown
+						)
+					)
+				)
+					playNote( midiNoteNumberOfMouseCurser );
+			}
+			if ( beatOfMouseCursor != oldBeat || midiNoteNumberOfMouseCurser != oldMidiNoteNumber )
+				repaintMouseCursor( oldBeat, oldMidiNoteNumber );
+		}
+
+	}
+
+	public void mouseDragged( MouseEvent e ) {
+		frameStats.eventHandled( e.getWhen() );
+		repaintFrameStats();
+		old_mouse_x = mouse_x;
+		old_mouse_y = mouse_y;
+		mouse_x = e.getX();
+		mouse_y = e.getY();
+		int delta_x = mouse_x - old_mouse_x;
+		int delta_y = mouse_y - old_mouse_y;
+
+		isControlKeyDown = e.isControlDown();
+
+		if ( radialMenu.isVisible() ) {
+			int returnValue = radialMenu.dragEvent( mouse_x, mouse_y );
+			if ( returnValue == CustomWidget.S_REDRAW )
+				repaint();
+			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+				return;
+		}
+		if ( controlMenu.isVisible() ) {
+			if ( controlMenu.isInMenuingMode() ) {
+				int returnValue = controlMenu.dragEvent( mouse_x, mouse_y );
+				if ( returnValue == CustomWidget.S_REDRAW )
+					repaint();
+				if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
+					return;
+			}
+			else {
+				// use the drag event to change the appropriate parameter
+				switch ( controlMenu.getIDOfSelection() ) {
+				case CONTROL_MENU_PAN:
+					gestureView.update();
+					gw.pan( delta_x, delta_y );
+					break;
+				case CONTROL_MENU_ZOOM:
+					gestureView.update();
+					gw.zoomIn( (float)Math.pow( Constant.zoomFactorPerPixelDragged, delta_x-delta_y ) );
+					break;
+				case CONTROL_MENU_TEMPO:
+					setBeatPeriodInNanoseconds(getBeatPeriodInNanoseconds() + delta_y * BeatScheduler.NANOSECONDS_PER_MILLISECOND);
+					simplePianoRoll.tempo.setText(getTempoDescription());
+					metronome.start((int)Math.round(score.tempoMap.getTempoInBPM(0)));
+					break;
+				case CONTROL_MENU_TEMPO_CHANGE:
+					// changes the tempo from the beat where the menu was invoked onward
+					if ( beatOfMouseCursor >= 0 ) {
+						long period = score.tempoMap.getNanosecondsPerBeat(beatOfMouseCursor) + delta_y * BeatScheduler.NANOSECONDS_PER_MILLISECOND;
+						if ( period > 0 ) {
+							// with the control key held down, the tempo ramps from there to the next tempo change
+							score.setTempoMap(score.tempoMap.withTempo(
+								beatOfMouseCursor, BeatScheduler.NANOSECONDS_PER_MINUTE / (double)period, isControlKeyDown
+							));
+							publishScore();
+						}
+					}
+					break;
+				case CONTROL_MENU_TOTAL_DURATION:
+					score.setNumBeats(score.getNumBeats() + delta_y);
+					publishScore();
+					if (simplePianoRoll.isAutoFrameActive)
+						gw.frame(score.getBoundingRectangle(), true);
+					break;
+				case CONTROL_MENU_LOOP_START:
+					score.setLoopRegion(score.getLoopStart() + delta_y, score.getLoopEnd());
+					publishScore();
+					break;
+				case CONTROL_MENU_LOOP_END:
+					score.setLoopRegion(score.getLoopStart(), score.getLoopEnd() + delta_y);
+					publishScore();
+					break;
+				default:
+					// TODO XXX
+					break;
+				}
+				repaint();
+			}
+		}
+		else {
+			paint( mouse_x, mouse_y );
+		}
+	}
+
+	public void startBackgroundWork() {
+		int previousBeat = currentBeat;
+		publishScoreNow();
+		playbackSession.rewind();
+		currentBeat = playbackSession.getCurrentBeat();
+		repaintTimeCursor( previousBeat );
+		if ( isPlaybackSequenced )
+			startSequencer();
+		if ( thread == null ) {
+			thread = new Thread( this );
+			threadSuspended = false;
+			thread.start();
+		}
+		else {
+			if ( threadSuspended ) {
+				threadSuspended = false;
+				synchronized( this ) {
+					notify();
+				}
+			}
+		}
+	}
+	public void stopBackgroundWork() {
+		threadSuspended = true;
+		if ( isPlaybackSequenced )
+			scoreSequencer.stop();
+	}
+
+	public void setMusicLooped( boolean flag ) {
+		playbackSession.setLooped( flag );
+		if ( scoreSequencer != null )
+			scoreSequencer.setLooping( flag );
+	}
+
+	// Swing and humanization only apply to the playback thread, not to sequenced playback.
+	public void setSwung( boolean flag ) {
+		groove.setSwing( flag ? Constant.SWING_IN_BEATS : 0 );
+	}
+	public void setHumanized( boolean flag ) {
+		if ( flag )
+			groove.setHumanize( Constant.HUMANIZE_TIMING_IN_MILLISECONDS * 1000, Constant.HUMANIZE_VELOCITY );
+		else
+			groove.setHumanize( 0, 0 );
+	}
+
+	// Stops playback at the end of the score, or of its loop region, when it isn't looped.
+	// This is called by the playback thread; the user interface is updated by the event dispatching thread.
+	private void stopAtEnd() {
+		threadSuspended = true;
+		SwingUtilities.invokeLater( new Runnable() {
+			public void run() {
+				simplePianoRoll.setMusicPlaying( false );
+			}
+		} );
+	}
+
+	// In sequenced playback, the notes are played by a Sequencer,
+	// and the playback thread only moves the time cursor.
+	// This should be called from the event dispatching thread.
+	public void setPlaybackSequenced( boolean flag ) {
+		if ( scoreSequencer == null || flag == isPlaybackSequenced )
+			return;
+		if ( flag ) {
+			scoreSequencer.open();
+			scoreSequencer.setLooping( simplePianoRoll.isMusicLoopedWhenPlayed );
+			scoreSequencer.load( score );
+			if ( thread != null && ! threadSuspended )
+				startSequencer();
+		}
+		else {
+			scoreSequencer.close();
+		}
+		isPlaybackSequenced = flag;
+	}
+
+	private void startSequencer() {
+		scoreSequencer.start();
+		sequencerStartTime = System.nanoTime();
+	}
+
+	// Returns the (fractional) beat that sequenced playback has reached, given the time elapsed since it started,
+	// following the score's tempo map, and going back to the start of the loop region when looped.
+	// When the tempo map changes, the beat reached so far is kept, and the time from there follows the new map.
+	// This is called by the playback thread.
+	private double getSequencedBeat( Score s, long now ) {
+		TempoMap tempoMap = s.tempoMap;
+		if ( sequencedStartTime != sequencerStartTime ) {
+			sequencedStartTime = sequencerStartTime;
+			sequencedBeat = s.getLoopStart();
+			sequencedTimeOfBeatZero = sequencedStartTime - Math.round( tempoMap.getTimeOfBeat( sequencedBeat ) );
+		}
+		else if ( tempoMap != sequencedTempoMap )
+			sequencedTimeOfBeatZero = now - Math.round( tempoMap.getTimeOfBeat( sequencedBeat ) );
+		sequencedTempoMap = tempoMap;
+		double beat = tempoMap.getBeatAtTime( now - sequencedTimeOfBeatZero );
+		if ( playbackSession.isLooped() && beat >= s.getLoopEnd() && s.getLoopEnd() > s.getLoopStart() ) {
+			// as the sequencer does, go on from the start of the loop region with the time left over
+			double loopDuration = tempoMap.getTimeOfBeat( s.getLoopEnd() ) - tempoMap.getTimeOfBeat( s.getLoopStart() );
+			double timeInLoop = ( tempoMap.getTimeOfBeat( beat ) - tempoMap.getTimeOfBeat( s.getLoopEnd() ) ) % loopDuration;
+			beat = tempoMap.getBeatAtTime( tempoMap.getTimeOfBeat( s.getLoopStart() ) + timeInLoop );
+			sequencedTimeOfBeatZero = now - Math.round( tempoMap.getTimeOfBeat( beat ) );
+		}
+		sequencedBeat = beat;
+		return beat;
+	}
+
+	public void run() {
+		try {
+			beatScheduler.start();
+			while (true) {
+				int previousBeat = currentBeat;
+				if ( isPlaybackSequenced ) {
+					playbackSession.turnOffSoundingNotes( -1 );
+					// the edits the sequencer couldn't play right away are handed to it once it has looped back
+					scoreSequencer.applyChanges();
+					Score s = playbackScore;
+					int beat = scoreSequencer.isRunning() ? (int)Math.floor( getSequencedBeat( s, System.nanoTime() ) ) : -1;
+					if (
+						! playbackSession.isLooped()
+						&& ( beat < 0 || ( beat >= s.getLoopEnd() && currentBeat < s.getLoopEnd() ) )
+					) {
+						// the sequencer has played past the end of the loop region, or of the score
+						stopAtEnd();
+					}
+					else if ( beat >= 0 )
+						currentBeat = beat;
+					if ( currentBeat != previousBeat ) {
+						frameStats.beatStarted();
+						repaintFrameStats();
+					}
+					repaintTimeCursor( previousBeat );
+				}
+				else {
+					if ( playbackSession.playNextBeat( elapsedBeats, beatScheduler.getCurrentDeadline() ) )
+						currentBeat = playbackSession.getCurrentBeat();
+					else
+						stopAtEnd();
+					if ( currentBeat != previousBeat ) {
+						frameStats.beatStarted();
+						repaintFrameStats();
+					}
+					repaintTimeCursor( previousBeat );
+				}
+
+				// Now the thread checks to see if it should suspend itself
+				if ( threadSuspended ) {
+					synchronized( this ) {
+						while ( threadSuspended ) {
+							wait();
+						}
+					}
+					beatScheduler.start();
+				}
+				// Wait for the next beat's deadline, minus the time given to the synthesizer to receive its notes.
+				// Time spent above doesn't delay the beats that follow.
+				// The beat's duration comes from the tempo map, which only changes with the score.
+				if ( isPlaybackSequenced )
+					beatScheduler.setPeriodInNanoseconds( playbackScore.tempoMap.getNanosecondsPerBeat( currentBeat ) );
+				else
+					beatScheduler.setPeriodInNanoseconds( playbackSession.getNanosecondsPerCurrentBeat() );
+				elapsedBeats = beatScheduler.awaitNextBeat( playbackSession.getLeadInNanoseconds() );
+			}
+		}
+		catch (InterruptedException e) { }
+	}
+
+	// The duration of the first beat.
+	// Setting it speeds up or slows down the whole tempo map, keeping its tempo changes in proportion.
+	public long getBeatPeriodInNanoseconds() {
+		return score.tempoMap.getNanosecondsPerBeat(0);
+	}
+	public void setBeatPeriodInNanoseconds(long beatPeriodInNanoseconds) {
+		if ( beatPeriodInNanoseconds <= 0 )
+			return;
+		score.setTempoMap(score.tempoMap.scaledBy(getBeatPeriodInNanoseconds() / (double)beatPeriodInNanoseconds));
+		publishScore();
+	}
+	public void clearTempoChanges() {
+		score.setTempoMap(new TempoMap(score.tempoMap.getTempoInBPM(0)));
+		publishScore();
+		repaint();
+	}
+	public String getTempoDescription() {
+		return "Tempo: " + Math.round(getBeatPeriodInNanoseconds() / (double)BeatScheduler.NANOSECONDS_PER_MILLISECOND)
+			+ " msec/beat";
+	}
+
+	// save all notes
+	public void saveNotes(){
+
+		System.out.println("from save notes");
+		try(BufferedWriter writer = Files.newBufferedWriter(target, charset))
+		{
+			score.writeNotes(writer);
+		}catch (IOException e){
+			System.out.println(e.getMessage());
+		}
+	}
+
+	// Renders the notes to notes.wav (next to notes.txt) with ScoreRenderer,
+	// in a thread of its own so the user interface isn't held up.
+	// A failure is logged, and shown in a dialog.
+	public void exportAudio(){
+		publishScoreNow();
+		final Score s = playbackScore;
+		final ScoreRenderer renderer = new ScoreRenderer();
+		new Thread( new Runnable() {
+			public void run() {
+				try {
+					renderer.render( s, new File( "notes.wav" ) );
+					System.out.println( "exported notes.wav" );
+				} catch ( IOException | MidiUnavailableException e ) {
+					Logger.getLogger( MyCanvas.class.getName() ).log( Level.SEVERE, null, e );
+					final String message = e.getMessage();
+					SwingUtilities.invokeLater( new Runnable() {
+						public void run() {
+							JOptionPane.showMessageDialog(
+								MyCanvas.this,
+								"Could not export notes.wav:\n" + message,
+								"Export Audio",
+								JOptionPane.ERROR_MESSAGE
+							);
+						}
+					} );
+				}
+			}
+		} ).start();
+	}
+
+	public void generateNotes(SimplePianoRoll spr) {
+
+		if(spr.isActivateMajorScale()){
+			generateSacle(Constant.MAJOR_SCALE);
+		}else if(spr.isActivatePentatonicScale()) {
+			generateSacle(Constant.PENTATONIC_SCALE); 
+		}
+	}
+
+	public void generateSacle(int scaleType){
+
+		Map range = getRange();
+
+		int minRangeVal = (int) range.get("min");
+		int maxRangeVal = (int) range.get("max");
+
+		System.out.println("Min range: "+minRangeVal);
+		System.out.println("Max range: "+maxRangeVal);
+
+		int noteValue;
+		int pitch = 0;
+
+		noteValue = (int)  (Math.random() * (maxRangeVal - minRangeVal)) + minRangeVal;
+		if( Constant.MAJOR_SCALE == scaleType ) {
+			for( int x=0; x<score.numBeats; x++ ) {
+
+				noteValue = (int)  (Math.random() * (maxRangeVal - minRangeVal)) + minRangeVal;
+				System.out.println("before trs : "+noteValue);
+
+				if( isOnScale( noteValue + Score.midiNoteNumberOfLowestPitch , Constant.MAJOR_SCALE) ){
+					System.out.println("painted: "+pitch);
+					// pitch =  noteValue + Score.midiNoteNumberOfLowestPitch + getYTranslation(noteValue);
+					score.setCell(x, noteValue, true); //+ getYTranslation(noteValue)
+				}
+			}
+			publishScore();
+			repaint();
+		}
+		else if( Constant.PENTATONIC_SCALE == scaleType ) {
+			for( int x=0; x<score.numBeats; x++ ) {
+ 
+				//noteValue += + getYTranslation(noteValue);
+				noteValue = (int)  (Math.random() * (maxRangeVal - minRangeVal)) + minRangeVal;
+				
+				if( isOnScale( noteValue + Score.midiNoteNumberOfLowestPitch , Constant.PENTATONIC_SCALE) ){
+					score.setCell(x, noteValue, true);
+				}
+			}
+			publishScore();
+			repaint();
+		}
+	}
+
+	public int getYTranslation(int random){
+
+		//float random = (float)Math.random();
+
+		if( random < 45){
+			return 1;
+			//System.out.println(1);
+		}
+		else if ( random >= 45 && random <=65 ) {
+			return -1;
+			//System.out.println(-1);
+		}
+		else if( random > 70 ){
+			return 0;
+			//System.out.println(0);
+		}
+		return 1;
+
+	}
+
+
+	public Map getRange(){
+
+		Random rand = new Random();
+		Map<String, Integer> minMaxVal = new HashMap<>();
+
+		int range =  rand.nextInt(88);
+
+		if ( range >=3 && range <= 15 ) {
+			minMaxVal.put("min", 3);
+			minMaxVal.put("max", 15);
+		}
+
+		else if ( range >15 && range <= 27 ) {
+			minMaxVal.put("min", 15);
+			minMaxVal.put("max", 27);
+		}
+
+		else if ( range >27 && range <= 39 ) {
+			minMaxVal.put("min", 27);
+			minMaxVal.put("max", 39);
+		}
+
+		else if ( range >39 && range <= 51 ) {
+			minMaxVal.put("min", 39);
+			minMaxVal.put("max", 51);
+		}
+
+		else if ( range >51 && range <= 63 ) {
+			minMaxVal.put("min", 51);
+			minMaxVal.put("max", 63);
+		}
+
+		else if ( range >63 && range <= 75 ) {
+			minMaxVal.put("min", 63);
+			minMaxVal.put("max", 75);
+		}
+
+		else if ( range >75 && range <= 87 ) {
+			minMaxVal.put("min", 75);
+			minMaxVal.put("max", 87);
+		}
+
+		return minMaxVal;
+	}
+
+
+	public boolean isOnScale(int note, int scaleType){
+
+		//int note_ = ( note >= 15 ) ? ( ( note % 12 ) - 3 ) : ( note % 12 );
+		int note_ = note % 12;
+
+		if( Constant.MAJOR_SCALE == scaleType ) {
+			for (int val : majorNotesTab) {
+				if( note_ == val ) {
+					return true;
+				}
+			}
+		}
+		else if ( Constant.PENTATONIC_SCALE == scaleType ) {
+			for (int val : pentatonicNOtesTab) {
+				if( note_ == val ) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+
+	public void saveMidiFile(int i) {
+
+		ShortMessage mm = new ShortMessage();
+		s = null;
+		try {
+			s = new Sequence(javax.sound.midi.Sequence.PPQ,24);
+			//mm.setMessage(0xC0, 0x00, 0x00);
+			mm.setMessage(i);
+			Track t = s.createTrack();
+			MidiEvent me = new MidiEvent(mm,(long)121);
+			t.add(me);
+
+			mm = new ShortMessage();
+			mm.setMessage(0x80,0x3C,0x40);
+			me = new MidiEvent(mm,(long)121);
+			t.add(me);
+
+
+		} catch (InvalidMidiDataException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+
+		f = new File("midifile.mid");
+
+	}
+
+
+
+	// load all saved notes
+	public void loadNotes(){
+
+		try(BufferedReader reader = Files.newBufferedReader(target, charset))
+		{
+			score.readNotes(reader);
+		}catch(IOException e){
+			System.out.println(e.getMessage());
+		}
+		publishScore();
+	}
+
+
+	public void openNotes(){
+		try (BufferedReader reader = Files.newBufferedReader(target, charset))
+		{
+			String line = null;
+			while( (line = reader.readLine()) != null ){
+				System.out.println(line);
+				lines.add(line);
+			}
+
+		}catch (IOException e){
+			System.out.println(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,300 @@
+
+import java.util.Arrays;
+
+// A sparse list of note events, each with an onset (in beats), a duration (in beats),
+// a pitch (an index into the score's pitches, not a MIDI note number) and a MIDI velocity.
+//
+// Notes are kept in parallel primitive arrays sorted by onset (then by pitch),
+// so holding a note costs 16 bytes no matter how long the score is.
+// Notes starting in a range of beats are found by binary search on the onsets.
+// Notes that are sounding at a given beat are found with an interval index:
+// a binary tree, laid out in an array, storing the latest end beat of the notes below each node.
+// An edit updates the index in place, from the leaf of the note added or removed to the end of the list
+// (only a few leaves when notes are added in order, e.g. as a score is read from a file);
+// when the tree has to grow, the index is instead rebuilt lazily, the first time it is queried.
+// The ends of the notes are also kept in a second sorted array,
+// so that the pitches that start and the pitches that stop at a given beat
+// (what playback needs from one beat to the next) are both found by binary search.
+//
+// snapshot() returns a read-only copy in constant time (plus the cost of bringing the index up to date):
+// the copy shares the arrays, and this list copies them before its next write.
+public class NoteList {
+
+	private int [] onsets;
+	private int [] durations;
+	private int [] pitches;
+	private int [] velocities;
+	private int size = 0;
+
+	// The ( end, pitch ) of every note, sorted by end then pitch.
+	private int [] sortedEnds;
+	private int [] pitchesOfSortedEnds;
+
+	// The interval index.
+	// maxEnd[ node ] is the largest ( onset + duration ) among the notes under that node;
+	// leaves start at index numLeaves, and leaf ( numLeaves + i ) is the i-th note.
+	private int [] maxEnd = new int[ 2 ];
+	private int numLeaves = 1;
+	private boolean isIndexUpToDate = true;
+
+	// true if the arrays are also referenced by a snapshot, and must be copied before being written to
+	private boolean areArraysShared = false;
+	private final boolean isReadOnly;
+
+	public NoteList() {
+		onsets = new int[ 16 ];
+		durations = new int[ 16 ];
+		pitches = new int[ 16 ];
+		velocities = new int[ 16 ];
+		sortedEnds = new int[ 16 ];
+		pitchesOfSortedEnds = new int[ 16 ];
+		isReadOnly = false;
+	}
+
+	private NoteList( NoteList other ) {
+		onsets = other.onsets;
+		durations = other.durations;
+		pitches = other.pitches;
+		velocities = other.velocities;
+		sortedEnds = other.sortedEnds;
+		pitchesOfSortedEnds = other.pitchesOfSortedEnds;
+		size = other.size;
+		maxEnd = other.maxEnd;
+		numLeaves = other.numLeaves;
+		isIndexUpToDate = other.isIndexUpToDate;
+		isReadOnly = true;
+	}
+
+	// Returns a read-only copy of the list, safe to read from other threads once published.
+	public NoteList snapshot() {
+		updateIndex();
+		areArraysShared = true;
+		return new NoteList( this );
+	}
+
+	public boolean isReadOnly() { return isReadOnly; }
+
+	private void prepareForWrite() {
+		if ( isReadOnly )
+			throw new IllegalStateException( "this note list is a read-only snapshot" );
+		if ( areArraysShared ) {
+			onsets = onsets.clone();
+			durations = durations.clone();
+			pitches = pitches.clone();
+			velocities = velocities.clone();
+			sortedEnds = sortedEnds.clone();
+			pitchesOfSortedEnds = pitchesOfSortedEnds.clone();
+			maxEnd = maxEnd.clone();
+			areArraysShared = false;
+		}
+	}
+
+	public int size() { return size; }
+	public int getOnset( int i ) { return onsets[ i ]; }
+	public int getDuration( int i ) { return durations[ i ]; }
+	public int getEnd( int i ) { return onsets[ i ] + durations[ i ]; }
+	public int getPitch( int i ) { return pitches[ i ]; }
+	public int getVelocity( int i ) { return velocities[ i ]; }
+
+	public void clear() {
+		prepareForWrite();
+		size = 0;
+		isIndexUpToDate = false;
+	}
+
+	// Inserts a note, keeping the list sorted, and returns its index.
+	public int add( int onset, int duration, int pitch, int velocity ) {
+		assert duration > 0;
+		prepareForWrite();
+		if ( size == onsets.length ) {
+			int capacity = 2 * onsets.length;
+			onsets = Arrays.copyOf( onsets, capacity );
+			durations = Arrays.copyOf( durations, capacity );
+			pitches = Arrays.copyOf( pitches, capacity );
+			velocities = Arrays.copyOf( velocities, capacity );
+			sortedEnds = Arrays.copyOf( sortedEnds, capacity );
+			pitchesOfSortedEnds = Arrays.copyOf( pitchesOfSortedEnds, capacity );
+		}
+		// find the first note that should come after the new one
+		int i = lowerBound( onset + 1 );
+		while ( i > 0 && onsets[ i-1 ] == onset && pitches[ i-1 ] > pitch )
+			--i;
+		int n = size - i;
+		System.arraycopy( onsets, i, onsets, i+1, n );
+		System.arraycopy( durations, i, durations, i+1, n );
+		System.arraycopy( pitches, i, pitches, i+1, n );
+		System.arraycopy( velocities, i, velocities, i+1, n );
+		onsets[ i ] = onset;
+		durations[ i ] = duration;
+		pitches[ i ] = pitch;
+		velocities[ i ] = velocity;
+
+		int end = onset + duration;
+		int j = lowerBoundOfEnds( end + 1 );
+		while ( j > 0 && sortedEnds[ j-1 ] == end && pitchesOfSortedEnds[ j-1 ] > pitch )
+			--j;
+		System.arraycopy( sortedEnds, j, sortedEnds, j+1, size - j );
+		System.arraycopy( pitchesOfSortedEnds, j, pitchesOfSortedEnds, j+1, size - j );
+		sortedEnds[ j ] = end;
+		pitchesOfSortedEnds[ j ] = pitch;
+
+		++size;
+		updateIndexFrom( i, size );
+		return i;
+	}
+
+	public void remove( int i ) {
+		prepareForWrite();
+		int end = onsets[ i ] + durations[ i ];
+		for ( int j = lowerBoundOfEnds( end ); j < size && sortedEnds[ j ] == end; ++j ) {
+			if ( pitchesOfSortedEnds[ j ] == pitches[ i ] ) {
+				System.arraycopy( sortedEnds, j+1, sortedEnds, j, size - j - 1 );
+				System.arraycopy( pitchesOfSortedEnds, j+1, pitchesOfSortedEnds, j, size - j - 1 );
+				break;
+			}
+		}
+		int n = size - i - 1;
+		System.arraycopy( onsets, i+1, onsets, i, n );
+		System.arraycopy( durations, i+1, durations, i, n );
+		System.arraycopy( pitches, i+1, pitches, i, n );
+		System.arraycopy( velocities, i+1, velocities, i, n );
+		--size;
+		updateIndexFrom( i, size + 1 );
+	}
+
+	// Returns the index of the first note whose onset is >= the given beat
+	// (or size() if there is none).
+	public int lowerBound( int beat ) {
+		int lo = 0, hi = size;
+		while ( lo < hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			if ( onsets[ mid ] < beat ) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	private int lowerBoundOfEnds( int beat ) {
+		int lo = 0, hi = size;
+		while ( lo < hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			if ( sortedEnds[ mid ] < beat ) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	// Sets, in the given bit set (64 pitches per word, as in BitGrid),
+	// the bits of the pitches of the notes that start at the given beat.
+	public void addPitchesStartingAt( int beat, long [] pitchWords ) {
+		int end = lowerBound( beat + 1 );
+		for ( int i = lowerBound( beat ); i < end; ++i )
+			pitchWords[ pitches[ i ] >>> 6 ] |= 1L << pitches[ i ];
+	}
+
+	// Sets, in the given bit set, the bits of the pitches of the notes
+	// that stop at the given beat (i.e. that sounded during the previous beat, and not this one).
+	public void addPitchesStoppingAt( int beat, long [] pitchWords ) {
+		for ( int j = lowerBoundOfEnds( beat ); j < size && sortedEnds[ j ] == beat; ++j )
+			pitchWords[ pitchesOfSortedEnds[ j ] >>> 6 ] |= 1L << pitchesOfSortedEnds[ j ];
+	}
+
+	// Returns the index of the note with the given onset and pitch, or -1 if there is none.
+	public int findNoteStartingAt( int beat, int pitch ) {
+		for ( int i = lowerBound( beat ); i < size && onsets[ i ] == beat && pitches[ i ] <= pitch; ++i )
+			if ( pitches[ i ] == pitch )
+				return i;
+		return -1;
+	}
+
+	// Appends to ``result'' the indices of the notes whose onset is in [beat0,beat1).
+	// These are contiguous in the list, so this is a pair of binary searches.
+	public void findNotesStartingIn( int beat0, int beat1, IntList result ) {
+		int end = lowerBound( beat1 );
+		for ( int i = lowerBound( beat0 ); i < end; ++i )
+			result.add( i );
+	}
+
+	// Appends to ``result'' the indices, in increasing order, of the notes that overlap [beat0,beat1),
+	// i.e. that start before beat1 and end after beat0.
+	public void findNotesIn( int beat0, int beat1, IntList result ) {
+		if ( size == 0 || beat1 <= beat0 )
+			return;
+		updateIndex();
+		findNotesIn( 1, 0, numLeaves, lowerBound( beat1 ), beat0, result );
+	}
+
+	// Appends to ``result'' the indices of the notes sounding during the given beat.
+	public void findNotesActiveAt( int beat, IntList result ) {
+		findNotesIn( beat, beat + 1, result );
+	}
+
+	// Returns the index of the note with the given pitch that is sounding during the given beat,
+	// or -1 if there is none.
+	public int findNoteAt( int beat, int pitch ) {
+		if ( size == 0 )
+			return -1;
+		updateIndex();
+		return findNoteAt( 1, 0, numLeaves, lowerBound( beat + 1 ), beat, pitch );
+	}
+
+	private int findNoteAt( int node, int nodeStart, int nodeEnd, int endIndex, int beat, int pitch ) {
+		if ( nodeStart >= endIndex || maxEnd[ node ] <= beat )
+			return -1;
+		if ( node >= numLeaves )
+			return pitches[ nodeStart ] == pitch ? nodeStart : -1;
+		int mid = ( nodeStart + nodeEnd ) >>> 1;
+		int i = findNoteAt( 2*node, nodeStart, mid, endIndex, beat, pitch );
+		if ( i >= 0 )
+			return i;
+		return findNoteAt( 2*node+1, mid, nodeEnd, endIndex, beat, pitch );
+	}
+
+	private void findNotesIn(
+		int node, int nodeStart, int nodeEnd, // the node, and the range of notes under it
+		int endIndex, // only notes before this index start early enough
+		int beat0,
+		IntList result
+	) {
+		if ( nodeStart >= endIndex || maxEnd[ node ] <= beat0 )
+			return;
+		if ( node >= numLeaves ) {
+			result.add( nodeStart );
+			return;
+		}
+		int mid = ( nodeStart + nodeEnd ) >>> 1;
+		findNotesIn( 2*node, nodeStart, mid, endIndex, beat0, result );
+		findNotesIn( 2*node+1, mid, nodeEnd, endIndex, beat0, result );
+	}
+
+	// Brings the index up to date after the notes from i on have moved,
+	// where end is one past the last leaf that changed.
+	private void updateIndexFrom( int i, int end ) {
+		if ( ! isIndexUpToDate || end > numLeaves ) {
+			isIndexUpToDate = false;
+			return;
+		}
+		for ( int k = i; k < end; ++k )
+			maxEnd[ numLeaves + k ] = k < size ? onsets[ k ] + durations[ k ] : Integer.MIN_VALUE;
+		for ( int lo = ( numLeaves + i ) >>> 1, hi = ( numLeaves + end - 1 ) >>> 1; lo >= 1; lo >>>= 1, hi >>>= 1 )
+			for ( int node = lo; node <= hi; ++node )
+				maxEnd[ node ] = Math.max( maxEnd[ 2*node ], maxEnd[ 2*node+1 ] );
+	}
+
+	private void updateIndex() {
+		if ( isIndexUpToDate )
+			return;
+		prepareForWrite();
+		numLeaves = 1;
+		while ( numLeaves < size )
+			numLeaves *= 2;
+		if ( maxEnd.length < 2 * numLeaves )
+			maxEnd = new int[ 2 * numLeaves ];
+		for ( int i = 0; i < numLeaves; ++i )
+			maxEnd[ numLeaves + i ] = i < size ? onsets[ i ] + durations[ i ] : Integer.MIN_VALUE;
+		for ( int node = numLeaves - 1; node >= 1; --node )
+			maxEnd[ node ] = Math.max( maxEnd[ 2*node ], maxEnd[ 2*node+1 ] );
+		isIndexUpToDate = true;
+	}
+
+}
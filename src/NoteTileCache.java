@@ -0,0 +1,270 @@
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The notes of a score (see Score.drawNotes()), drawn into square tiles that are kept from one frame to the next,
+// so that panning over a region already seen only copies images, and only the tiles entering the window are drawn.
+//
+// Tiles are drawn at zoom levels a power of two apart: the level of a view is the largest power of two
+// of world space units per pixel that is no more than the view's, so a tile has between one and two
+// of its pixels per pixel of the window, and is scaled down when copied there.
+// At a given level, the tiles are laid out on a grid fixed in world space, NOTE_TILE_SIZE_IN_PIXELS pixels of the level apart:
+// tile (i,j) covers i*size to (i+1)*size pixels right of the origin (and j*size to (j+1)*size below it).
+// So a tile is reused whatever the offset of the view, and for every zoom between two powers of two.
+//
+// Tiles are transparent outside the notes, so they're copied over the rest of the score.
+// The least recently used ones are dropped once the tiles take more than the given number of bytes.
+//
+// As a ScoreListener, the cache drops only the tiles showing a note that was added or removed
+// (including those whose density map changes, when zoomed far out), which are found from the note's cells;
+// all of them when the score is cleared; and those past the old or new end of the score when its length changes.
+public class NoteTileCache implements ScoreListener {
+
+	private static final int TILE_SIZE = Constant.NOTE_TILE_SIZE_IN_PIXELS;
+
+	private static class TileKey {
+		int level; // the tile has 2^level world space units per pixel
+		double deviceScaleX, deviceScaleY;
+		int i, j;
+
+		TileKey() { }
+		TileKey( TileKey other ) {
+			level = other.level;
+			deviceScaleX = other.deviceScaleX;
+			deviceScaleY = other.deviceScaleY;
+			i = other.i;
+			j = other.j;
+		}
+
+		boolean isSameLevelAs( TileKey k ) {
+			return level == k.level && deviceScaleX == k.deviceScaleX && deviceScaleY == k.deviceScaleY;
+		}
+
+		public boolean equals( Object o ) {
+			if ( ! ( o instanceof TileKey ) )
+				return false;
+			TileKey k = (TileKey)o;
+			return i == k.i && j == k.j && isSameLevelAs( k );
+		}
+		public int hashCode() {
+			int h = level;
+			h = 31 * h + i;
+			h = 31 * h + j;
+			return h;
+		}
+	}
+
+	private static class Tile {
+		BufferedImage image;
+	}
+
+	private long budgetInBytes;
+	private long sizeInBytes = 0;
+	private LinkedHashMap< TileKey, Tile > tiles = new LinkedHashMap< TileKey, Tile >( 16, 0.75f, true ); // in access order
+	// The levels (and scales of the device) of the tiles, kept until the cache is cleared; there are only a few.
+	private ArrayList< TileKey > levels = new ArrayList< TileKey >();
+	private int numBeats = -1; // of the score last drawn
+	private TileKey lookupKey = new TileKey();
+	private GraphicsWrapper tileGW = new GraphicsWrapper();
+	private Rectangle visiblePixels = new Rectangle();
+
+	public NoteTileCache( long budgetInBytes ) {
+		this.budgetInBytes = budgetInBytes;
+	}
+
+	public int getNumTiles() { return tiles.size(); }
+	public long getSizeInBytes() { return sizeInBytes; }
+
+	// Returns the zoom level of the given scale: the exponent of the largest power of two no more than it.
+	private static int getLevel( float scaleFactorInWorldSpaceUnitsPerPixel ) {
+		return Math.getExponent( scaleFactorInWorldSpaceUnitsPerPixel );
+	}
+	private static float getScaleOfLevel( int level ) {
+		return Math.scalb( 1f, level );
+	}
+
+	// Draws the notes of the given score over the visible part of the window of the given GraphicsWrapper,
+	// whose coordinate system is left in world space units.
+	public void draw( GraphicsWrapper gw, Score score ) {
+		if ( score.numBeats != numBeats ) {
+			if ( numBeats >= 0 )
+				invalidateFrom( Math.min( numBeats, score.numBeats ) );
+			numBeats = score.numBeats;
+		}
+		AffineTransform deviceTransform = gw.originalTransform;
+		float scale = gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+		lookupKey.level = getLevel( scale );
+		lookupKey.deviceScaleX = deviceTransform.getScaleX();
+		lookupKey.deviceScaleY = deviceTransform.getScaleY();
+		float tileSizeInWorldSpaceUnits = TILE_SIZE * getScaleOfLevel( lookupKey.level );
+
+		gw.getVisibleRectangleInPixels( visiblePixels );
+		if ( visiblePixels.isEmpty() )
+			return;
+		int firstI = (int)Math.floor( gw.convertPixelsToWorldSpaceUnitsX( visiblePixels.x ) / tileSizeInWorldSpaceUnits );
+		int lastI = (int)Math.floor( gw.convertPixelsToWorldSpaceUnitsX( visiblePixels.x + visiblePixels.width ) / tileSizeInWorldSpaceUnits );
+		int firstJ = (int)Math.floor( gw.convertPixelsToWorldSpaceUnitsY( visiblePixels.y ) / tileSizeInWorldSpaceUnits );
+		int lastJ = (int)Math.floor( gw.convertPixelsToWorldSpaceUnitsY( visiblePixels.y + visiblePixels.height ) / tileSizeInWorldSpaceUnits );
+
+		gw.setCoordinateSystemToPixels();
+		for ( int j = firstJ; j <= lastJ; ++j ) {
+			// the edges of the tiles are rounded to whole pixels the same way on either side, so tiles meet without gaps
+			int y0 = gw.convertWorldSpaceUnitsToPixelsY( j * tileSizeInWorldSpaceUnits );
+			int y1 = gw.convertWorldSpaceUnitsToPixelsY( ( j + 1 ) * tileSizeInWorldSpaceUnits );
+			for ( int i = firstI; i <= lastI; ++i ) {
+				int x0 = gw.convertWorldSpaceUnitsToPixelsX( i * tileSizeInWorldSpaceUnits );
+				int x1 = gw.convertWorldSpaceUnitsToPixelsX( ( i + 1 ) * tileSizeInWorldSpaceUnits );
+				lookupKey.i = i;
+				lookupKey.j = j;
+				Tile tile = tiles.get( lookupKey );
+				if ( tile == null ) {
+					tile = render( score );
+					tiles.put( new TileKey( lookupKey ), tile );
+					sizeInBytes += getSizeInBytes( tile );
+					addLevel( lookupKey );
+					evict();
+				}
+				if ( x1 > x0 && y1 > y0 )
+					gw.drawImage( tile.image, x0, y0, x1 - x0, y1 - y0 );
+			}
+		}
+		gw.setCoordinateSystemToWorldSpaceUnits();
+	}
+
+	private void addLevel( TileKey key ) {
+		for ( TileKey level : levels )
+			if ( level.isSameLevelAs( key ) )
+				return;
+		levels.add( new TileKey( key ) );
+	}
+
+	// Draws the tile of lookupKey.
+	private Tile render( Score score ) {
+		double deviceScaleX = lookupKey.deviceScaleX, deviceScaleY = lookupKey.deviceScaleY;
+		int w = Math.max( 1, (int)Math.ceil( TILE_SIZE * deviceScaleX ) );
+		int h = Math.max( 1, (int)Math.ceil( TILE_SIZE * deviceScaleY ) );
+		float scale = getScaleOfLevel( lookupKey.level );
+		Tile tile = new Tile();
+		tile.image = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB_PRE );
+		Graphics2D g2 = tile.image.createGraphics();
+		try {
+			g2.scale( deviceScaleX, deviceScaleY );
+			g2.clipRect( 0, 0, TILE_SIZE, TILE_SIZE );
+			tileGW.set( g2 );
+			tileGW.setView( TILE_SIZE, TILE_SIZE, -lookupKey.i * TILE_SIZE, -lookupKey.j * TILE_SIZE, scale );
+			tileGW.setCoordinateSystemToWorldSpaceUnits();
+			score.drawNotes( tileGW );
+		}
+		finally {
+			g2.dispose();
+		}
+		return tile;
+	}
+
+	// How far, in world space units, the drawing of a cell may reach at the given level.
+	// Notes are drawn within their cells, but when zoomed out the density map (see Score.drawDensity())
+	// shades blocks of beats, less than 2*MIN_PIXELS_PER_DENSITY_BLOCK wide (or BEATS_PER_BLOCK beats),
+	// and rows of pitches, less than 2 pixels high, that a note anywhere in them changes.
+	private static float getMarginX( int level ) {
+		return 1 + Math.max( OccupancyPyramid.BEATS_PER_BLOCK, 2 * Constant.MIN_PIXELS_PER_DENSITY_BLOCK * getScaleOfLevel( level ) );
+	}
+	private static float getMarginY( int level ) {
+		return 1 + 2 * getScaleOfLevel( level );
+	}
+
+	private static long getSizeInBytes( Tile tile ) {
+		return 4L * tile.image.getWidth() * tile.image.getHeight();
+	}
+
+	// Drops the least recently used tiles until the budget is met, always keeping the tile just drawn.
+	private void evict() {
+		Iterator< Tile > it = tiles.values().iterator();
+		while ( sizeInBytes > budgetInBytes && tiles.size() > 1 ) {
+			sizeInBytes -= getSizeInBytes( it.next() );
+			it.remove();
+		}
+	}
+
+	public void clear() {
+		tiles.clear();
+		levels.clear();
+		sizeInBytes = 0;
+	}
+
+	// Drops the tiles that depend on the given cells.
+	// At each level, these are found from the cells' position on the grid of tiles,
+	// unless the cells span more tiles than there are in the cache.
+	public void invalidate( int onset, int duration, int pitch ) {
+		// pitch y covers [-y-1,-y] in world space
+		float x0 = onset, x1 = onset + duration, y0 = -pitch - 1, y1 = -pitch;
+		for ( TileKey level : levels ) {
+			float tileSizeInWorldSpaceUnits = TILE_SIZE * getScaleOfLevel( level.level );
+			float marginX = getMarginX( level.level ), marginY = getMarginY( level.level );
+			int firstI = (int)Math.floor( ( x0 - marginX ) / tileSizeInWorldSpaceUnits );
+			int lastI = (int)Math.floor( ( x1 + marginX ) / tileSizeInWorldSpaceUnits );
+			int firstJ = (int)Math.floor( ( y0 - marginY ) / tileSizeInWorldSpaceUnits );
+			int lastJ = (int)Math.floor( ( y1 + marginY ) / tileSizeInWorldSpaceUnits );
+			if ( (long)( lastI - firstI + 1 ) * ( lastJ - firstJ + 1 ) > tiles.size() ) {
+				removeTiles( level, firstI, lastI, firstJ, lastJ );
+				continue;
+			}
+			lookupKey.level = level.level;
+			lookupKey.deviceScaleX = level.deviceScaleX;
+			lookupKey.deviceScaleY = level.deviceScaleY;
+			for ( int j = firstJ; j <= lastJ; ++j ) {
+				for ( int i = firstI; i <= lastI; ++i ) {
+					lookupKey.i = i;
+					lookupKey.j = j;
+					Tile tile = tiles.remove( lookupKey );
+					if ( tile != null )
+						sizeInBytes -= getSizeInBytes( tile );
+				}
+			}
+		}
+	}
+
+	// Drops the tiles that depend on the cells of the given beat and after,
+	// which change when the end of the score moves there.
+	private void invalidateFrom( int beat ) {
+		for ( TileKey level : levels ) {
+			float tileSizeInWorldSpaceUnits = TILE_SIZE * getScaleOfLevel( level.level );
+			int firstI = (int)Math.floor( ( beat - getMarginX( level.level ) ) / tileSizeInWorldSpaceUnits );
+			removeTiles( level, firstI, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE );
+		}
+	}
+
+	// Drops the tiles of the given level within the given range of the grid, going through them all.
+	private void removeTiles( TileKey level, int firstI, int lastI, int firstJ, int lastJ ) {
+		Iterator< Map.Entry< TileKey, Tile > > it = tiles.entrySet().iterator();
+		while ( it.hasNext() ) {
+			Map.Entry< TileKey, Tile > entry = it.next();
+			TileKey key = entry.getKey();
+			if ( key.isSameLevelAs( level ) && firstI <= key.i && key.i <= lastI && firstJ <= key.j && key.j <= lastJ ) {
+				sizeInBytes -= getSizeInBytes( entry.getValue() );
+				it.remove();
+			}
+		}
+	}
+
+	public void noteAdded( int onset, int duration, int pitch, int velocity ) {
+		invalidate( onset, duration, pitch );
+	}
+	public void noteRemoved( int onset, int duration, int pitch, int velocity ) {
+		invalidate( onset, duration, pitch );
+	}
+	public void scoreCleared() {
+		clear();
+	}
+	// The tiles past the old or new end are dropped by the next call to draw(), which compares the score's length with the last one drawn,
+	// so that this works as well for a cache that only sees snapshots (see FrameRenderer).
+	public void numBeatsChanged( int numBeats ) { }
+	public void loopRegionChanged( int loopStart, int loopEnd ) { }
+	public void tempoMapChanged( TempoMap tempoMap ) { }
+
+}
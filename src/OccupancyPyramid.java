@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+// Counts the cells set in a BitGrid over blocks of beats, for each pitch, at several resolutions,
+// so that a zoomed out view of a long score can be drawn as a density map
+// at a cost that depends on the size of the view rather than on the number of notes.
+//
+// Level k has blocks of BEATS_PER_BLOCK << k beats; the top level has a single block covering the whole score.
+// Setting or clearing a cell updates one count per level.
+//
+// As with BitGrid, the counts are stored in pieces, each holding BLOCKS_PER_PIECE blocks of every pitch.
+// A piece is only allocated when a cell is first set in it, so a long score only costs memory
+// for the regions that hold notes, and snapshot() returns a read-only copy that shares the pieces,
+// each piece being copied the next time this pyramid writes to it.
+public class OccupancyPyramid {
+
+	public static final int BEATS_PER_BLOCK = 4; // at level 0
+	private static final int BLOCKS_PER_PIECE = 16;
+	private static final int [] EMPTY_PIECE = new int[ 0 ];
+
+	private int numBeats;
+	private int numPitches;
+	private int [][][] pieces; // indexed by level, then piece
+	private boolean [][] isPieceShared; // true if the piece is also referenced by a snapshot
+	private final boolean isReadOnly;
+
+	public OccupancyPyramid( int numBeats, int numPitches ) {
+		this.numPitches = numPitches;
+		pieces = new int[ 0 ][][];
+		isPieceShared = new boolean[ 0 ][];
+		isReadOnly = false;
+		ensureNumBeats( numBeats );
+	}
+
+	private OccupancyPyramid( OccupancyPyramid other ) {
+		numBeats = other.numBeats;
+		numPitches = other.numPitches;
+		pieces = new int[ other.pieces.length ][][];
+		for ( int k = 0; k < pieces.length; ++k )
+			pieces[ k ] = other.pieces[ k ].clone();
+		isReadOnly = true;
+	}
+
+	// Returns a read-only copy, safe to read from other threads once published.
+	// This costs one reference per piece; the counts themselves are not copied.
+	public OccupancyPyramid snapshot() {
+		for ( boolean [] flags : isPieceShared )
+			Arrays.fill( flags, true );
+		return new OccupancyPyramid( this );
+	}
+
+	public int getNumLevels() { return pieces.length; }
+	public int getBeatsPerBlock( int level ) { return BEATS_PER_BLOCK << level; }
+
+	private static int numBlocksFor( int numBeats, int level ) {
+		int beatsPerBlock = BEATS_PER_BLOCK << level;
+		return ( numBeats + beatsPerBlock - 1 ) / beatsPerBlock;
+	}
+
+	// Grows the pyramid, if necessary, to hold at least the given number of beats,
+	// adding levels on top so that the top level still has a single block.
+	// Only the tables of piece references grow; no piece is allocated.
+	public void ensureNumBeats( int n ) {
+		if ( isReadOnly )
+			throw new IllegalStateException( "this pyramid is a read-only snapshot" );
+		if ( n <= numBeats && pieces.length > 0 )
+			return;
+		n = Math.max( n, numBeats );
+		int numLevels = 1;
+		while ( numBlocksFor( n, numLevels - 1 ) > 1 )
+			++numLevels;
+		int oldNumLevels = pieces.length;
+		if ( numLevels > oldNumLevels ) {
+			pieces = Arrays.copyOf( pieces, numLevels );
+			isPieceShared = Arrays.copyOf( isPieceShared, numLevels );
+			for ( int k = oldNumLevels; k < numLevels; ++k ) {
+				pieces[ k ] = new int[ 0 ][];
+				isPieceShared[ k ] = new boolean[ 0 ];
+			}
+		}
+		for ( int k = 0; k < numLevels; ++k ) {
+			int numPieces = ( numBlocksFor( n, k ) + BLOCKS_PER_PIECE - 1 ) / BLOCKS_PER_PIECE;
+			int oldLength = pieces[ k ].length;
+			if ( numPieces > oldLength ) {
+				pieces[ k ] = Arrays.copyOf( pieces[ k ], Math.max( numPieces, 2 * oldLength ) );
+				Arrays.fill( pieces[ k ], oldLength, pieces[ k ].length, EMPTY_PIECE );
+				isPieceShared[ k ] = Arrays.copyOf( isPieceShared[ k ], pieces[ k ].length );
+			}
+		}
+		if ( numLevels > oldNumLevels && oldNumLevels > 0 ) {
+			// the new levels start with the counts of the old top level, whose single block held all the cells
+			int [] top = pieces[ oldNumLevels - 1 ][ 0 ];
+			if ( top != EMPTY_PIECE ) {
+				for ( int k = oldNumLevels; k < numLevels; ++k ) {
+					int [] piece = getWritablePiece( k, 0 );
+					System.arraycopy( top, 0, piece, 0, numPitches );
+				}
+			}
+		}
+		numBeats = n;
+	}
+
+	private int [] getWritablePiece( int level, int p ) {
+		if ( isReadOnly )
+			throw new IllegalStateException( "this pyramid is a read-only snapshot" );
+		int [][] levelPieces = pieces[ level ];
+		if ( levelPieces[ p ] == EMPTY_PIECE ) {
+			levelPieces[ p ] = new int[ BLOCKS_PER_PIECE * numPitches ];
+			isPieceShared[ level ][ p ] = false;
+		}
+		else if ( isPieceShared[ level ][ p ] ) {
+			levelPieces[ p ] = levelPieces[ p ].clone();
+			isPieceShared[ level ][ p ] = false;
+		}
+		return levelPieces[ p ];
+	}
+
+	// Adds delta (+1 when a cell is set, -1 when it is cleared) to the counts of the blocks holding the cell.
+	public void add( int beat, int pitch, int delta ) {
+		if ( beat < 0 || beat >= numBeats || pitch < 0 || pitch >= numPitches )
+			return;
+		for ( int k = 0; k < pieces.length; ++k ) {
+			int block = beat / ( BEATS_PER_BLOCK << k );
+			int [] piece = getWritablePiece( k, block / BLOCKS_PER_PIECE );
+			piece[ ( block % BLOCKS_PER_PIECE ) * numPitches + pitch ] += delta;
+		}
+	}
+
+	// Returns how many cells of the given pitch are set in the given block of the given level.
+	public int getCount( int level, int block, int pitch ) {
+		int [][] levelPieces = pieces[ level ];
+		int p = block / BLOCKS_PER_PIECE;
+		if ( p >= levelPieces.length || levelPieces[ p ] == EMPTY_PIECE )
+			return 0;
+		return levelPieces[ p ][ ( block % BLOCKS_PER_PIECE ) * numPitches + pitch ];
+	}
+
+	public void clearAll() {
+		if ( isReadOnly )
+			throw new IllegalStateException( "this pyramid is a read-only snapshot" );
+		for ( int [][] levelPieces : pieces )
+			Arrays.fill( levelPieces, EMPTY_PIECE );
+	}
+
+}
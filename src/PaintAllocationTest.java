@@ -0,0 +1,73 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+// Checks that painting the canvas allocates close to nothing, since the garbage made by every frame
+// ends up pausing the event dispatching thread when it is collected (see GraphicsWrapper).
+//
+// A MyCanvas showing the default score, with the time cursor, is painted many times into a BufferedImage
+// through paintComponent(), after a warm-up,
+// and the bytes allocated by the thread (com.sun.management.ThreadMXBean.getThreadAllocatedBytes()) are measured.
+// The mouse is kept off the canvas: drawing into a BufferedImage, Java2D fills translucent shapes
+// (such as the datatip's background) through a software pipe that allocates a raster for every fill.
+// Nothing is shown, so this works with -Djava.awt.headless=true.
+// Exits with status 1 if more than MAX_BYTES_PER_FRAME are allocated per frame on average:
+//    java -Djava.awt.headless=true PaintAllocationTest
+public class PaintAllocationTest {
+
+	public static final int NUM_FRAMES = 5000;
+	// Swing and Java2D allocate about 350 bytes per frame: the scratch Graphics of JComponent.paintComponent(),
+	// and the Graphics2D.getTransform() of GraphicsWrapper.set(). Allocating per note or per line goes far past this.
+	public static final long MAX_BYTES_PER_FRAME = 512;
+
+	private static com.sun.management.ThreadMXBean threadMXBean
+		= (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	private static long getAllocatedBytes() {
+		return threadMXBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	private static void paint( MyCanvas canvas, Graphics2D g2, int numFrames ) {
+		for ( int i = 0; i < numFrames; ++i )
+			canvas.paintComponent( g2 );
+	}
+
+	public static void main( String [] args ) {
+		if ( ! threadMXBean.isThreadAllocatedMemorySupported() ) {
+			System.out.println( "measuring allocations isn't supported by this JVM" );
+			System.exit( 1 );
+		}
+		threadMXBean.setThreadAllocatedMemoryEnabled( true );
+
+		int width = Constant.INITIAL_WINDOW_WIDTH, height = Constant.INITIAL_WINDOW_HEIGHT;
+		MyCanvas canvas = new MyCanvas( new SimplePianoRoll() );
+		canvas.setSize( width, height );
+		canvas.gw.resize( width, height );
+		canvas.gw.frame( canvas.score.getBoundingRectangle(), false );
+		canvas.currentBeat = 8;
+
+		BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+		Graphics2D g2 = image.createGraphics();
+		try {
+			paint( canvas, g2, NUM_FRAMES ); // warm-up, so the JIT has compiled the code and the caches are filled
+
+			long bytes = getAllocatedBytes();
+			paint( canvas, g2, NUM_FRAMES );
+			bytes = getAllocatedBytes() - bytes;
+
+			double bytesPerFrame = bytes / (double)NUM_FRAMES;
+			System.out.println( NUM_FRAMES + " frames of " + width + "x" + height + " pixels: "
+				+ String.format( "%.1f", bytesPerFrame ) + " bytes allocated per frame" );
+			if ( bytesPerFrame > MAX_BYTES_PER_FRAME ) {
+				System.out.println( "FAILED: painting allocates" );
+				System.exit( 1 );
+			}
+			System.out.println( "passed" );
+		}
+		finally {
+			g2.dispose();
+		}
+		System.exit( 0 ); // the canvas's timers aren't daemon threads
+	}
+
+}
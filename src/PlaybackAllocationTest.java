@@ -0,0 +1,103 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+// Checks that playing beats allocates nothing, with a Groove swinging and humanizing the notes,
+// since garbage made by the playback thread ends up delaying beats when it is collected.
+//
+// The bytes allocated by the thread (com.sun.management.ThreadMXBean.getThreadAllocatedBytes())
+// are measured around many calls to PlaybackSession.playNextBeat(), after a warm-up.
+// The notes go to a MidiOutput wrapping a Receiver that only counts them;
+// such an output gives each message a ShortMessage of its own (see MidiOutput),
+// so the bytes of those messages, measured beforehand, are not counted against the session.
+// (Having no clock, such an output sends no timestamps, so only the groove's swing and velocities are applied.)
+// Exits with status 1 if more than MAX_BYTES_PER_BEAT are allocated per beat on average:
+//    java PlaybackAllocationTest
+public class PlaybackAllocationTest {
+
+	public static final int NUM_BEATS = 1000000;
+	public static final long MAX_BYTES_PER_BEAT = 1; // allows for a few stray allocations, e.g. by the JIT
+
+	// Counts the messages it is sent, and keeps the last one so its allocation can't be optimized away.
+	private static class CountingReceiver implements Receiver {
+		long numMessages = 0;
+		MidiMessage lastMessage;
+		public void send( MidiMessage message, long timestamp ) {
+			++numMessages;
+			lastMessage = message;
+		}
+		public void close() { }
+	}
+
+	private static com.sun.management.ThreadMXBean threadMXBean
+		= (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	private static long getAllocatedBytes() {
+		return threadMXBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	// A looped score of random notes, so beats go by with notes starting, stopping, held, and wrapping around.
+	private static Score makeScore() {
+		Score score = new Score();
+		Random random = new Random( 1 );
+		for ( int i = 0; i < 400; ++i )
+			score.addNote( random.nextInt( score.numBeats ), 1 + random.nextInt( 8 ), random.nextInt( score.numPitches ), 64 + random.nextInt( 64 ) );
+		score.setLoopRegion( 0, score.numBeats );
+		return score.snapshot();
+	}
+
+	private static void playBeats( PlaybackSession session, int numBeats ) {
+		for ( int i = 0; i < numBeats; ++i )
+			session.playNextBeat( 1, 0 );
+	}
+
+	// The bytes allocated per message sent by a MidiOutput wrapping a receiver.
+	private static double measureBytesPerMessage( CountingReceiver receiver ) {
+		MidiOutput output = new MidiOutput( receiver );
+		for ( int i = 0; i < 100000; ++i )
+			output.noteOn( 60, 100 );
+		long numMessages = receiver.numMessages;
+		long bytes = getAllocatedBytes();
+		for ( int i = 0; i < 100000; ++i )
+			output.noteOn( 60, 100 );
+		bytes = getAllocatedBytes() - bytes;
+		return bytes / (double)( receiver.numMessages - numMessages );
+	}
+
+	public static void main( String [] args ) {
+		if ( ! threadMXBean.isThreadAllocatedMemorySupported() ) {
+			System.out.println( "measuring allocations isn't supported by this JVM" );
+			System.exit( 1 );
+		}
+		threadMXBean.setThreadAllocatedMemoryEnabled( true );
+
+		CountingReceiver receiver = new CountingReceiver();
+		double bytesPerMessage = measureBytesPerMessage( receiver );
+
+		Groove groove = new Groove( Constant.GROOVE_SEED );
+		groove.setSwing( Constant.SWING_IN_BEATS );
+		groove.setHumanize( Constant.HUMANIZE_TIMING_IN_MILLISECONDS * 1000, Constant.HUMANIZE_VELOCITY );
+		PlaybackSession session = new PlaybackSession( makeScore(), new MidiOutput( receiver ) );
+		session.setLooped( true );
+		session.setGroove( groove );
+		session.rewind();
+		playBeats( session, NUM_BEATS ); // warm-up, so the JIT has compiled the code and the lists have grown
+
+		long numMessages = receiver.numMessages;
+		long bytes = getAllocatedBytes();
+		playBeats( session, NUM_BEATS );
+		bytes = getAllocatedBytes() - bytes;
+		numMessages = receiver.numMessages - numMessages;
+
+		double bytesPerBeat = ( bytes - numMessages * bytesPerMessage ) / NUM_BEATS;
+		System.out.println( NUM_BEATS + " beats, " + numMessages + " messages: " + bytes + " bytes allocated, "
+			+ String.format( "%.1f", bytesPerMessage ) + " per message; " + String.format( "%.3f", bytesPerBeat ) + " bytes per beat otherwise" );
+		if ( bytesPerBeat > MAX_BYTES_PER_BEAT ) {
+			System.out.println( "FAILED: playing beats allocates" );
+			System.exit( 1 );
+		}
+		System.out.println( "passed" );
+	}
+
+}
@@ -0,0 +1,123 @@
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Plays many PlaybackSessions at once, without any user interface,
+// on a small pool of threads shared by all the sessions.
+//
+// A session doesn't hold a thread while it waits for its next beat:
+// each beat is a task scheduled on a ScheduledExecutorService,
+// which plays the beat and then schedules the next one at its absolute deadline (see BeatScheduler),
+// so thousands of sessions can run on a few threads, and delays don't accumulate into drift.
+public class PlaybackEngine {
+
+	private ScheduledExecutorService executor;
+
+	private AtomicInteger numPlaying = new AtomicInteger();
+	private LatencyHistogram latenesses = new LatencyHistogram(); // of every beat after the first, over all the sessions
+
+	// One thread per processor is enough, since playing a beat never blocks.
+	public PlaybackEngine() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+	public PlaybackEngine( int numThreads ) {
+		executor = Executors.newScheduledThreadPool( numThreads, new ThreadFactory() {
+			private AtomicInteger numThreadsCreated = new AtomicInteger();
+			public Thread newThread( Runnable r ) {
+				Thread thread = new Thread( r, "PlaybackEngine-" + numThreadsCreated.incrementAndGet() );
+				thread.setDaemon( true );
+				thread.setPriority( Thread.MAX_PRIORITY );
+				return thread;
+			}
+		} );
+	}
+
+	// Starts playing the session from the start of its loop region, and returns a handle to stop it.
+	// The tempo is that of the session's score.
+	public Playback start( PlaybackSession session ) {
+		Playback playback = new Playback( session );
+		numPlaying.incrementAndGet();
+		playback.scheduleNextBeat( 0 );
+		return playback;
+	}
+
+	public int getNumPlaying() { return numPlaying.get(); }
+
+	// The worst lateness of any beat, over all the sessions so far.
+	public long getMaxLatenessInNanoseconds() { return latenesses.getMaxInNanoseconds(); }
+	// How late the beats were woken up (see BeatScheduler.advance()), over all the sessions so far; a copy.
+	public LatencyHistogram getLatenesses() { return latenesses.snapshot(); }
+	public void resetLatenesses() { latenesses.reset(); }
+
+	// Stops all the sessions. The engine can't be used afterward.
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	// A session being played.
+	public class Playback implements Runnable {
+		private PlaybackSession session;
+		private BeatScheduler beatScheduler;
+		private boolean isFirstBeat = true;
+		private long wakeUpTime;
+		private ScheduledFuture<?> nextBeat;
+		private boolean isStopped = false;
+
+		private Playback( PlaybackSession session ) {
+			this.session = session;
+			session.rewind();
+			beatScheduler = new BeatScheduler( session.getNanosecondsPerCurrentBeat() );
+		}
+
+		public PlaybackSession getSession() { return session; }
+
+		// For its statistics; the tempo is set from the session's score before each beat.
+		public BeatScheduler getBeatScheduler() { return beatScheduler; }
+
+		public synchronized boolean isStopped() { return isStopped; }
+
+		// Stops playback, and turns off the notes left sounding.
+		// Beats are played while holding the lock of their Playback,
+		// so this waits for a beat being played to finish, and the session is never used by two threads at once.
+		public synchronized void stop() {
+			if ( isStopped )
+				return;
+			isStopped = true;
+			nextBeat.cancel( false );
+			session.turnOffSoundingNotes( -1 );
+			numPlaying.decrementAndGet();
+		}
+
+		private synchronized void scheduleNextBeat( long delayInNanoseconds ) {
+			nextBeat = executor.schedule( this, delayInNanoseconds, TimeUnit.NANOSECONDS );
+		}
+
+		public synchronized void run() {
+			if ( isStopped )
+				return;
+			int elapsedBeats = 1;
+			if ( isFirstBeat ) {
+				beatScheduler.start();
+				isFirstBeat = false;
+			}
+			else {
+				elapsedBeats = beatScheduler.advance( System.nanoTime(), wakeUpTime );
+				latenesses.record( beatScheduler.getLastLatenessInNanoseconds() );
+			}
+			if ( ! session.playNextBeat( elapsedBeats, beatScheduler.getCurrentDeadline() ) ) {
+				// the end of a session that isn't looped
+				isStopped = true;
+				numPlaying.decrementAndGet();
+				return;
+			}
+			beatScheduler.setPeriodInNanoseconds( session.getNanosecondsPerCurrentBeat() );
+			wakeUpTime = beatScheduler.getNextWakeUpTime( session.getLeadInNanoseconds() );
+			scheduleNextBeat( wakeUpTime - System.nanoTime() );
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+// Plays thousands of sessions at once on a PlaybackEngine, and reports how late their beats were woken up
+// (the jitter of the engine's scheduling) as percentiles, along with the number of beats skipped.
+//
+// Every session plays the same looped score of random notes, into a MidiOutput whose receiver drops the messages,
+// so the cost of sending the notes is counted but no synthesizer is needed.
+// The sessions are started one after the other over the first beat, as they would be by independent users,
+// rather than all having their beats due at the same instants.
+// The first WARM_UP_IN_SECONDS aren't counted, so the JIT has compiled the code.
+// Percentiles are only known to within 1/16 of their value (see LatencyHistogram).
+//
+// Arguments: the number of sessions, the number of seconds to measure, and the number of threads
+// (by default one per processor), e.g.
+//    java PlaybackEngineLoadTest 5000 20
+public class PlaybackEngineLoadTest {
+
+	public static final int DEFAULT_NUM_SESSIONS = 2000;
+	public static final int DEFAULT_DURATION_IN_SECONDS = 10;
+	public static final int WARM_UP_IN_SECONDS = 2;
+
+	private static final double [] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static class DroppingReceiver implements Receiver {
+		public void send( MidiMessage message, long timestamp ) { }
+		public void close() { }
+	}
+
+	private static Score makeScore() {
+		Score score = new Score();
+		Random random = new Random( 1 );
+		for ( int i = 0; i < 400; ++i )
+			score.addNote( random.nextInt( score.numBeats ), 1 + random.nextInt( 8 ), random.nextInt( score.numPitches ), 64 + random.nextInt( 64 ) );
+		score.setLoopRegion( 0, score.numBeats );
+		return score.snapshot();
+	}
+
+	private static String toMilliseconds( long nanoseconds ) {
+		return String.format( "%.3f", nanoseconds / (double)BeatScheduler.NANOSECONDS_PER_MILLISECOND );
+	}
+
+	public static void main( String [] args ) throws InterruptedException {
+		int numSessions = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : DEFAULT_NUM_SESSIONS;
+		int durationInSeconds = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : DEFAULT_DURATION_IN_SECONDS;
+		int numThreads = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : Runtime.getRuntime().availableProcessors();
+
+		Score score = makeScore();
+		PlaybackEngine engine = new PlaybackEngine( numThreads );
+		List< PlaybackEngine.Playback > playbacks = new ArrayList< PlaybackEngine.Playback >();
+		long nanosecondsPerBeat = score.tempoMap.getNanosecondsPerBeat( 0 );
+		for ( int i = 0; i < numSessions; ++i ) {
+			PlaybackSession session = new PlaybackSession( score, new MidiOutput( new DroppingReceiver() ) );
+			session.setLooped( true );
+			playbacks.add( engine.start( session ) );
+			LockSupport.parkNanos( nanosecondsPerBeat / numSessions );
+		}
+
+		Thread.sleep( WARM_UP_IN_SECONDS * 1000L );
+		engine.resetLatenesses();
+		long numSkippedBeats = 0;
+		for ( PlaybackEngine.Playback playback : playbacks )
+			numSkippedBeats -= playback.getBeatScheduler().getNumSkippedBeats();
+		Thread.sleep( durationInSeconds * 1000L );
+		LatencyHistogram latenesses = engine.getLatenesses();
+		for ( PlaybackEngine.Playback playback : playbacks ) {
+			numSkippedBeats += playback.getBeatScheduler().getNumSkippedBeats();
+			playback.stop();
+		}
+		engine.shutdown();
+
+		System.out.println( numSessions + " sessions on " + numThreads + " threads, " + durationInSeconds + " s at "
+			+ String.format( "%.0f", BeatScheduler.NANOSECONDS_PER_MINUTE / (double)nanosecondsPerBeat ) + " BPM: "
+			+ latenesses.getCount() + " beats, " + numSkippedBeats + " skipped" );
+		StringBuilder line = new StringBuilder( "lateness (ms):" );
+		for ( double p : PERCENTILES )
+			line.append( " " ).append( p * 100 ).append( "% " ).append( toMilliseconds( latenesses.getPercentileInNanoseconds( p ) ) ).append( "," );
+		line.append( " mean " ).append( toMilliseconds( latenesses.getMeanInNanoseconds() ) );
+		line.append( ", max " ).append( toMilliseconds( latenesses.getMaxInNanoseconds() ) );
+		System.out.println( line );
+	}
+
+}
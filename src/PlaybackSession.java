@@ -0,0 +1,218 @@
+
+import java.util.Arrays;
+
+// Plays a score one beat at a time, with no user interface and no thread of its own:
+// whoever paces the beats (the canvas's playback thread, or a PlaybackEngine)
+// calls playNextBeat() once per beat.
+//
+// Only the changes between the notes sounding during the previous beat and those of the new one are sent:
+// a note held across both beats is neither turned off nor attacked again,
+// while a note starting at the new beat is always attacked, even if a note of the same pitch ends there.
+// Wrapping around from the end of the loop region to its start turns off every note sounding at the end of the loop,
+// and attacks every note sounding at its start, found once per snapshot.
+// If the music isn't looped, playback stops at the end of the loop region instead.
+//
+// An optional Groove swings the beats and humanizes the notes as they are sent;
+// the score itself is left unchanged.
+//
+// The score is a read-only snapshot, which may be replaced by another thread at any time,
+// so no lock is needed.
+public class PlaybackSession {
+
+	private volatile Score score;
+	private MidiOutput output; // null to play silently
+	private volatile boolean isLooped = false;
+	private volatile Groove groove = null; // null to play the notes as written
+
+	private volatile int currentBeat = 0;
+	// true if the next beat to play is the start of the loop, rather than the beat after currentBeat
+	private volatile boolean isStartPending = true;
+
+	// These are only used by the thread playing the beats.
+	private IntList notesAtCurrentBeat = new IntList();
+	private Score scoreOfCurrentBeat = null; // the snapshot used to turn on the current beat's notes
+	// Sets of pitches, with 64 pitches per word as in BitGrid.
+	private long [] soundingPitches; // the notes turned on
+	private long [] wantedPitches;
+	private long [] stoppingPitches;
+	private long [] attackedPitches; // wanted pitches whose note starts anew, so are turned off first if sounding
+	// The notes sounding at the start of the loop, kept so that wrapping around doesn't search for them.
+	private Score scoreOfLoopStart = null;
+	private int beatOfLoopStart = -1;
+	private IntList notesAtLoopStart = new IntList();
+	private long [] pitchesAtLoopStart;
+
+	public PlaybackSession( Score score, MidiOutput output ) {
+		this.score = score;
+		this.output = output;
+		soundingPitches = new long[ ( score.numPitches + 63 ) / 64 ];
+		wantedPitches = new long[ soundingPitches.length ];
+		stoppingPitches = new long[ soundingPitches.length ];
+		attackedPitches = new long[ soundingPitches.length ];
+		pitchesAtLoopStart = new long[ soundingPitches.length ];
+	}
+
+	public Score getScore() { return score; }
+	// The score should be a snapshot (see Score.snapshot()).
+	public void setScore( Score snapshot ) { score = snapshot; }
+
+	public MidiOutput getOutput() { return output; }
+
+	public boolean isLooped() { return isLooped; }
+	public void setLooped( boolean flag ) { isLooped = flag; }
+
+	public Groove getGroove() { return groove; }
+	// The groove should only be used by this session, since it keeps track of which offsets were used.
+	public void setGroove( Groove groove ) { this.groove = groove; }
+
+	public int getCurrentBeat() { return currentBeat; }
+
+	// How long the current beat lasts, according to the score's tempo map.
+	// The caller gives this to its BeatScheduler before waiting for the next beat.
+	public long getNanosecondsPerCurrentBeat() {
+		return score.tempoMap.getNanosecondsPerBeat( currentBeat );
+	}
+
+	// How long before each beat's deadline playNextBeat() should be called.
+	public long getLeadInNanoseconds() {
+		return output != null && output.isTimestamped() ? output.getLookaheadInNanoseconds() : 0;
+	}
+
+	// Makes the next call to playNextBeat() play the start of the loop.
+	public void rewind() {
+		currentBeat = score.getLoopStart();
+		isStartPending = true;
+	}
+
+	// Turns off the notes left sounding, e.g. when playback is paused.
+	// The deadline is on the System.nanoTime() clock, or -1 to turn the notes off now.
+	public void turnOffSoundingNotes( long deadlineInNanoseconds ) {
+		turnOffSoundingNotesAt( output != null && deadlineInNanoseconds != -1 ? output.getTimestamp( deadlineInNanoseconds ) : -1 );
+	}
+	private void turnOffSoundingNotesAt( long timestamp ) {
+		for ( int w = 0; w < soundingPitches.length; ++w ) {
+			for ( long bits = soundingPitches[w]; bits != 0; bits &= bits - 1 ) {
+				int pitch = w * 64 + Long.numberOfTrailingZeros( bits );
+				if ( output != null )
+					output.noteOff( pitch+Score.midiNoteNumberOfLowestPitch, timestamp );
+			}
+			soundingPitches[w] = 0;
+		}
+		scoreOfCurrentBeat = null;
+	}
+
+	// Advances by the given number of beats (normally 1, more if beats were skipped),
+	// and sends the notes of the new beat, to sound at the given deadline (on the System.nanoTime() clock).
+	// Returns false if, instead, playback has reached the end and isn't looped;
+	// the notes are then turned off at the deadline.
+	public boolean playNextBeat( int elapsedBeats, long deadlineInNanoseconds ) {
+		Score s = score;
+		Groove g = groove;
+
+		int loopStart = s.getLoopStart(), loopEnd = s.getLoopEnd();
+		int newBeat;
+		if ( isStartPending ) {
+			isStartPending = false;
+			newBeat = loopStart;
+		}
+		else {
+			newBeat = currentBeat + elapsedBeats;
+			// The time cursor may be past the loop region, if the region was moved during playback;
+			// it then goes on to the end of the score.
+			int end = currentBeat < loopEnd ? loopEnd : s.numBeats;
+			if ( newBeat >= end ) {
+				if ( ! isLooped ) {
+					turnOffSoundingNotes( deadlineInNanoseconds );
+					return false;
+				}
+				newBeat = loopEnd > loopStart ? loopStart + ( newBeat - end ) % ( loopEnd - loopStart ) : loopStart;
+			}
+		}
+		// All the changes are sent as one batch, timestamped with the beat's deadline (delayed if the beat is swung).
+		if ( g != null )
+			deadlineInNanoseconds += g.getSwingDelayInNanoseconds( newBeat, s.tempoMap.getNanosecondsPerBeat( newBeat ) );
+		long timestamp = output != null ? output.getTimestamp( deadlineInNanoseconds ) : -1;
+
+		Arrays.fill( wantedPitches, 0 );
+		notesAtCurrentBeat.clear();
+		// The notes that may have to be turned on; any wanted pitch that isn't sounding yet is among them.
+		IntList notesToStart = notesAtCurrentBeat;
+		if ( s == scoreOfCurrentBeat && newBeat == currentBeat + 1 ) {
+			// The common case: the next beat of an unchanged score.
+			// Only the notes that start or stop at the new beat need to be looked at.
+			Arrays.fill( stoppingPitches, 0 );
+			Arrays.fill( attackedPitches, 0 );
+			s.notes.addPitchesStoppingAt( newBeat, stoppingPitches );
+			s.notes.addPitchesStartingAt( newBeat, attackedPitches );
+			for ( int w = 0; w < wantedPitches.length; ++w )
+				wantedPitches[w] = ( soundingPitches[w] & ~stoppingPitches[w] ) | attackedPitches[w];
+			s.notes.findNotesStartingIn( newBeat, newBeat + 1, notesAtCurrentBeat );
+		}
+		else if ( newBeat == loopStart && newBeat <= currentBeat ) {
+			// Wrapping around (or starting): what sounds at the start of the loop only changes with the score.
+			// These notes are all attacked, since the notes sounding before the wrap were at the end of the loop.
+			if ( s != scoreOfLoopStart || loopStart != beatOfLoopStart ) {
+				notesAtLoopStart.clear();
+				Arrays.fill( pitchesAtLoopStart, 0 );
+				s.notes.findNotesActiveAt( loopStart, notesAtLoopStart );
+				for ( int i = 0; i < notesAtLoopStart.size(); ++i ) {
+					int pitch = s.notes.getPitch( notesAtLoopStart.get(i) );
+					pitchesAtLoopStart[ pitch / 64 ] |= 1L << pitch;
+				}
+				scoreOfLoopStart = s;
+				beatOfLoopStart = loopStart;
+			}
+			System.arraycopy( pitchesAtLoopStart, 0, wantedPitches, 0, wantedPitches.length );
+			System.arraycopy( pitchesAtLoopStart, 0, attackedPitches, 0, attackedPitches.length );
+			notesToStart = notesAtLoopStart;
+		}
+		else {
+			// After a jump, or an edit, find everything sounding at the new beat.
+			// A note that had already started by the previous beat is taken to be the one still sounding,
+			// unless playback jumped backward.
+			Arrays.fill( attackedPitches, 0 );
+			s.notes.findNotesActiveAt( newBeat, notesAtCurrentBeat );
+			for ( int i = 0; i < notesAtCurrentBeat.size(); ++i ) {
+				int note = notesAtCurrentBeat.get(i);
+				int pitch = s.notes.getPitch( note );
+				wantedPitches[ pitch / 64 ] |= 1L << pitch;
+				if ( newBeat <= currentBeat || s.notes.getOnset( note ) > currentBeat )
+					attackedPitches[ pitch / 64 ] |= 1L << pitch;
+			}
+		}
+		currentBeat = newBeat;
+		scoreOfCurrentBeat = s;
+
+		for ( int w = 0; w < soundingPitches.length; ++w ) {
+			for ( long bits = soundingPitches[w] & ( ~wantedPitches[w] | attackedPitches[w] ); bits != 0; bits &= bits - 1 ) {
+				int pitch = w * 64 + Long.numberOfTrailingZeros( bits );
+				if ( output != null )
+					output.noteOff( pitch+Score.midiNoteNumberOfLowestPitch, timestamp );
+			}
+			// from now on, soundingPitches holds the pitches that remain to be turned on
+			soundingPitches[w] = wantedPitches[w] & ( ~soundingPitches[w] | attackedPitches[w] );
+		}
+		for ( int i = 0; i < notesToStart.size(); ++i ) {
+			int note = notesToStart.get(i);
+			int pitch = s.notes.getPitch( note );
+			long bit = 1L << pitch;
+			if ( ( soundingPitches[ pitch / 64 ] & bit ) != 0 ) {
+				soundingPitches[ pitch / 64 ] &= ~bit;
+				if ( output == null )
+					continue;
+				int velocity = s.notes.getVelocity( note );
+				long noteTimestamp = timestamp;
+				if ( g != null ) {
+					g.nextNote();
+					velocity = g.getVelocity( velocity );
+					if ( timestamp != -1 )
+						noteTimestamp = Math.max( 0, timestamp + g.getTimingOffsetInMicroseconds() );
+				}
+				output.noteOn( pitch+Score.midiNoteNumberOfLowestPitch, velocity, noteTimestamp );
+			}
+		}
+		System.arraycopy( wantedPitches, 0, soundingPitches, 0, soundingPitches.length );
+		return true;
+	}
+
+}
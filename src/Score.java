@@ -0,0 +1,636 @@
+
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/*
+   The octave:
+      pitch class     English name     French name
+           0             C             do
+           1             C#/Db         do diese / re bemol
+           2             D             re
+           3             D#/Eb         re diese / mi bemol
+           4             E             mi
+           5             F             fa
+           6             F#/Gb         fa diese / sol bemol
+           7             G             sol
+           8             G#/Ab         sol diese / la bemol
+           9             A             la
+          10             A#/Bb         la diese / si bemol
+          11             B             si
+           0             C             do
+
+   A grand piano keyboard has 88 keys:
+                              Note Name     MIDI note number     Pitch class
+      lowest key (1st key):       A0            21                     9
+      middle C:                   C4            60                     0
+      highest key (88th key):     C8           108                     0
+*/
+
+
+public class Score {
+	public static final int midiNoteNumberOfMiddleC = 60;
+
+	public int numPitches = 88;
+	public static final int pitchClassOfLowestPitch = 9; // 9==A==la
+	public static final int midiNoteNumberOfLowestPitch = 21;
+	public int numBeats = 128;
+	public static final int maxNumBeats = 1 << 24;
+	public static final int defaultVelocity = Constant.midiVolume;
+	public static final double defaultTempoInBPM = 400; // 150 msec per beat
+
+	// The tempo over time. Replaced as a whole (see setTempoMap()), never modified.
+	public TempoMap tempoMap = new TempoMap( defaultTempoInBPM );
+
+	// The notes, with their durations and velocities.
+	public NoteList notes = new NoteList();
+
+	// The cells covered by the notes, for quickly testing a given (beat,pitch).
+	// A cell is set if and only if some note covers it.
+	public BitGrid grid;
+
+	// How many cells are set in blocks of beats of each pitch, for drawing a zoomed out score.
+	public OccupancyPyramid occupancy;
+
+	// The region of beats [loopStartBeat,loopEndBeat) repeated by playback, if hasLoopRegion;
+	// otherwise, the whole score is repeated.
+	private boolean hasLoopRegion = false;
+	private int loopStartBeat = 0;
+	private int loopEndBeat = 0;
+
+	// scratch space for queries made while drawing
+	private IntList notesToDraw = new IntList();
+	// scratch space for addNote()
+	private IntList overlappingNotes = new IntList();
+	private Rectangle visiblePixels = new Rectangle();
+	// The beats [firstVisibleBeat,endVisibleBeat) and pitches [firstVisiblePitch,endVisiblePitch)
+	// that may show in the window being drawn (see findVisibleRange()).
+	private int firstVisibleBeat, endVisibleBeat, firstVisiblePitch, endVisiblePitch;
+	// For each shade of the density map, the runs of blocks to fill with it,
+	// as (first block, end block, pitch) triples.
+	private IntList [] densityRuns;
+
+	private ArrayList<ScoreListener> listeners = new ArrayList<ScoreListener>();
+
+	public static final int numPitchesInOctave = 12;
+	public String [] namesOfPitchClasses;
+	public boolean [] pitchClassesInMajorScale;
+	public boolean [] pitchClassesToEmphasizeInMajorScale;
+
+	public Score() {
+		grid = new BitGrid( numBeats, numPitches );
+		occupancy = new OccupancyPyramid( numBeats, numPitches );
+		densityRuns = newDensityRuns();
+
+		namesOfPitchClasses = new String[ numPitchesInOctave ];
+		namesOfPitchClasses[ 0] = "C";
+		namesOfPitchClasses[ 1] = "C#";
+		namesOfPitchClasses[ 2] = "D";
+		namesOfPitchClasses[ 3] = "D#";
+		namesOfPitchClasses[ 4] = "E";
+		namesOfPitchClasses[ 5] = "F";
+		namesOfPitchClasses[ 6] = "F#";
+		namesOfPitchClasses[ 7] = "G";
+		namesOfPitchClasses[ 8] = "G#";
+		namesOfPitchClasses[ 9] = "A";
+		namesOfPitchClasses[10] = "A#";
+		namesOfPitchClasses[11] = "B";
+
+		pitchClassesInMajorScale = new boolean[ numPitchesInOctave ];
+		pitchClassesInMajorScale[ 0] = true;
+		pitchClassesInMajorScale[ 1] = false;
+		pitchClassesInMajorScale[ 2] = true;
+		pitchClassesInMajorScale[ 3] = false;
+		pitchClassesInMajorScale[ 4] = true;
+		pitchClassesInMajorScale[ 5] = true;
+		pitchClassesInMajorScale[ 6] = false;
+		pitchClassesInMajorScale[ 7] = true;
+		pitchClassesInMajorScale[ 8] = false;
+		pitchClassesInMajorScale[ 9] = true;
+		pitchClassesInMajorScale[10] = false;
+		pitchClassesInMajorScale[11] = true;
+
+		pitchClassesToEmphasizeInMajorScale = new boolean[ numPitchesInOctave ];
+		pitchClassesToEmphasizeInMajorScale[ 0] = true;
+		pitchClassesToEmphasizeInMajorScale[ 1] = false;
+		pitchClassesToEmphasizeInMajorScale[ 2] = false;
+		pitchClassesToEmphasizeInMajorScale[ 3] = false;
+		pitchClassesToEmphasizeInMajorScale[ 4] = true;
+		pitchClassesToEmphasizeInMajorScale[ 5] = true;
+		pitchClassesToEmphasizeInMajorScale[ 6] = false;
+		pitchClassesToEmphasizeInMajorScale[ 7] = true;
+		pitchClassesToEmphasizeInMajorScale[ 8] = false;
+		pitchClassesToEmphasizeInMajorScale[ 9] = false;
+		pitchClassesToEmphasizeInMajorScale[10] = false;
+		pitchClassesToEmphasizeInMajorScale[11] = false;
+	}
+
+	private Score( Score other ) {
+		numPitches = other.numPitches;
+		numBeats = other.numBeats;
+		hasLoopRegion = other.hasLoopRegion;
+		loopStartBeat = other.loopStartBeat;
+		loopEndBeat = other.loopEndBeat;
+		tempoMap = other.tempoMap;
+		notes = other.notes.snapshot();
+		grid = other.grid.snapshot();
+		occupancy = other.occupancy.snapshot();
+		densityRuns = newDensityRuns();
+		namesOfPitchClasses = other.namesOfPitchClasses;
+		pitchClassesInMajorScale = other.pitchClassesInMajorScale;
+		pitchClassesToEmphasizeInMajorScale = other.pitchClassesToEmphasizeInMajorScale;
+	}
+
+	// Returns a read-only copy of the score, which other threads may read
+	// while this score goes on being edited.
+	// The copy shares storage with this score, which copies what it writes to afterward,
+	// so taking a snapshot is cheap even for long scores.
+	public Score snapshot() {
+		return new Score( this );
+	}
+
+	// returns -1 if out of bounds
+	public int getMidiNoteNumberForMouseY( GraphicsWrapper gw, int mouse_y ) {
+		float y = gw.convertPixelsToWorldSpaceUnitsY( mouse_y );
+		int indexOfPitch = (int)(-y);
+		if ( 0 <= indexOfPitch && indexOfPitch < numPitches )
+			return indexOfPitch + midiNoteNumberOfLowestPitch;
+		return -1;
+	}
+
+	// returns -1 if out of bounds
+	public int getBeatForMouseX( GraphicsWrapper gw, int mouse_x ) {
+		float x = gw.convertPixelsToWorldSpaceUnitsX( mouse_x );
+		int indexOfBeat = (int)x;
+		if ( 0 <= indexOfBeat && indexOfBeat < numBeats )
+			return indexOfBeat;
+		return -1;
+	}
+
+	// Finds the beats and pitches that may show in the part of the window being drawn,
+	// so that drawing follows the size of the view rather than that of the score.
+	// A margin of one cell is kept around them, for what is drawn across the edges of cells.
+	private void findVisibleRange( GraphicsWrapper gw ) {
+		gw.getVisibleRectangleInPixels( visiblePixels );
+		float x0 = gw.convertPixelsToWorldSpaceUnitsX( visiblePixels.x );
+		float x1 = gw.convertPixelsToWorldSpaceUnitsX( visiblePixels.x + visiblePixels.width );
+		float y0 = gw.convertPixelsToWorldSpaceUnitsY( visiblePixels.y );
+		float y1 = gw.convertPixelsToWorldSpaceUnitsY( visiblePixels.y + visiblePixels.height );
+		// pitch y covers [-y-1,-y] in world space
+		firstVisibleBeat = (int)Math.max( 0, Math.min( numBeats, Math.floor( x0 ) - 1 ) );
+		endVisibleBeat = (int)Math.max( firstVisibleBeat, Math.min( numBeats, Math.ceil( x1 ) + 1 ) );
+		firstVisiblePitch = (int)Math.max( 0, Math.min( numPitches, Math.floor( -y1 ) - 1 ) );
+		endVisiblePitch = (int)Math.max( firstVisiblePitch, Math.min( numPitches, Math.ceil( -y0 ) + 1 ) );
+	}
+
+	// Draws the lines of each pitch and of every 4th beat,
+	// which only change with the view, the size of the score, and highlightMajorCScale.
+	// The lines are filled in one batch per color.
+	public void drawBackground( GraphicsWrapper gw, boolean highlightMajorCScale ) {
+		findVisibleRange( gw );
+		gw.beginRectangles();
+		for ( int y = firstVisiblePitch; y < endVisiblePitch; y++ )
+			addPitchLine( gw, y, highlightMajorCScale, true );
+		gw.setColor( 1, 1, 1 );
+		gw.fillRectangles();
+		for ( int y = firstVisiblePitch; y < endVisiblePitch; y++ )
+			addPitchLine( gw, y, highlightMajorCScale, false );
+		addBarLines( gw, -endVisiblePitch, endVisiblePitch - firstVisiblePitch );
+		gw.setColor( 0.6f, 0.6f, 0.6f );
+		gw.fillRectangles();
+	}
+
+	// Adds the visible bar lines, from y to y+height, to the batch of rectangles of gw.
+	// When zoomed out, only every other bar line is drawn (and so on), so that they don't merge into a gray area,
+	// and the lines are kept at least a pixel wide, so that they don't vanish between pixels.
+	private void addBarLines( GraphicsWrapper gw, float y, float height ) {
+		int beatsPerBarLine = getBeatsPerBarLine( gw );
+		int firstBarLine = ( firstVisibleBeat + beatsPerBarLine - 1 ) / beatsPerBarLine * beatsPerBarLine;
+		float width = Math.max( 0.1f, gw.getScaleFactorInWorldSpaceUnitsPerPixel() );
+		for ( int x = firstBarLine; x < endVisibleBeat; x += beatsPerBarLine )
+			gw.addRectangle( x+0.45f-( width-0.1f )/2, y, width, height );
+	}
+
+	private static int getBeatsPerBarLine( GraphicsWrapper gw ) {
+		int beatsPerBarLine = 4;
+		while ( beatsPerBarLine / gw.getScaleFactorInWorldSpaceUnitsPerPixel() < Constant.MIN_PIXELS_BETWEEN_BAR_LINES )
+			beatsPerBarLine *= 2;
+		return beatsPerBarLine;
+	}
+
+	// Draws the line of pitch y across the visible beats.
+	private void drawPitchLine( GraphicsWrapper gw, int y, boolean highlightMajorCScale ) {
+		gw.beginRectangles();
+		addPitchLine( gw, y, highlightMajorCScale, true );
+		gw.setColor( 1, 1, 1 );
+		gw.fillRectangles();
+		addPitchLine( gw, y, highlightMajorCScale, false );
+		gw.setColor( 0.6f, 0.6f, 0.6f );
+		gw.fillRectangles();
+	}
+
+	// Adds the line of pitch y across the visible beats to the batch of rectangles of gw,
+	// if the line is white (when isWhite) or gray (otherwise).
+	private void addPitchLine( GraphicsWrapper gw, int y, boolean highlightMajorCScale, boolean isWhite ) {
+		int pitchClass = ( y + pitchClassOfLowestPitch ) % numPitchesInOctave;
+		int midiNoteNumber = y + midiNoteNumberOfLowestPitch;
+		float x = firstVisibleBeat, width = endVisibleBeat - firstVisibleBeat;
+		if ( midiNoteNumber == midiNoteNumberOfMiddleC ) {
+			if ( isWhite )
+				gw.addRectangle( x, -y-0.7f, width, 0.4f );
+		}
+		else if ( pitchClass == 0 && highlightMajorCScale ) {
+			if ( isWhite )
+				gw.addRectangle( x, -y-0.6f, width, 0.2f );
+		}
+		else if ( pitchClassesToEmphasizeInMajorScale[ pitchClass ] && highlightMajorCScale ) {
+			if ( ! isWhite )
+				gw.addRectangle( x, -y-0.6f, width, 0.2f );
+		}
+		else if ( pitchClassesInMajorScale[ pitchClass ] || ! highlightMajorCScale ) {
+			if ( ! isWhite )
+				gw.addRectangle( x, -y-0.55f, width, 0.1f );
+		}
+	}
+
+	public void draw(
+		GraphicsWrapper gw,
+		boolean highlightMajorCScale,
+		int midiNoteNumber1ToHilite,
+		int beat1ToHilite,
+		int beat2ToHilite
+	) {
+		draw( gw, null, null, highlightMajorCScale, midiNoteNumber1ToHilite, beat1ToHilite, beat2ToHilite );
+	}
+
+	// As above, but with the background copied from the given cache, if not null,
+	// which then also clears the window,
+	// and the notes copied from the given cache of tiles, if not null.
+	public void draw(
+		GraphicsWrapper gw,
+		ScoreBackground background,
+		NoteTileCache noteTiles,
+		boolean highlightMajorCScale,
+		int midiNoteNumber1ToHilite,
+		int beat1ToHilite,
+		int beat2ToHilite
+	) {
+		if ( background != null )
+			background.draw( gw, this, highlightMajorCScale );
+		else
+			drawBackground( gw, highlightMajorCScale );
+		findVisibleRange( gw );
+		float top = -endVisiblePitch, height = endVisiblePitch - firstVisiblePitch;
+		// The mouse cursor's row goes under the lines, which are drawn again over it.
+		int y1ToHilite = midiNoteNumber1ToHilite - midiNoteNumberOfLowestPitch;
+		if ( firstVisiblePitch <= y1ToHilite && y1ToHilite < endVisiblePitch ) {
+			gw.setColor( 0, 1, 1 );
+			gw.fillRect( firstVisibleBeat, -y1ToHilite-0.8f, endVisibleBeat - firstVisibleBeat, 0.6f );
+			drawPitchLine( gw, y1ToHilite, highlightMajorCScale );
+			addBarLines( gw, -y1ToHilite-0.8f, 0.6f );
+			gw.setColor( 0.6f, 0.6f, 0.6f );
+			gw.fillRectangles();
+		}
+		if ( firstVisibleBeat <= beat1ToHilite && beat1ToHilite < endVisibleBeat ) { // mouse cursor
+			gw.setColor( 0, 1, 1 );
+			gw.fillRect( beat1ToHilite+0.2f, top, 0.6f, height );
+			if ( beat1ToHilite % getBeatsPerBarLine( gw ) == 0 && beat1ToHilite != beat2ToHilite ) {
+				gw.setColor( 0.6f, 0.6f, 0.6f );
+				gw.fillRect( beat1ToHilite+0.45f, top, 0.1f, height );
+			}
+		}
+		if ( firstVisibleBeat <= beat2ToHilite && beat2ToHilite < endVisibleBeat ) { // time cursor
+			gw.setColor( 1, 0, 0 );
+			gw.fillRect( beat2ToHilite+0.45f, top, 0.1f, height );
+		}
+		if ( hasLoopRegion() ) {
+			gw.setColor( 0, 0.8f, 0 );
+			gw.fillRect( getLoopStart()-0.05f, top, 0.1f, height );
+			gw.fillRect( getLoopEnd()-0.05f, top, 0.1f, height );
+		}
+		gw.setColor( 0, 0, 1 );
+		for ( int i = 1; i < tempoMap.getNumSegments(); ++i ) { // tempo changes
+			int x = tempoMap.getSegmentStart( i );
+			if ( x >= endVisibleBeat || x >= numBeats )
+				break;
+			if ( x >= firstVisibleBeat )
+				gw.fillRect( x-0.05f, top, 0.1f, height );
+		}
+		if ( noteTiles != null )
+			noteTiles.draw( gw, this );
+		else
+			drawNotes( gw );
+	}
+
+	// Draws the notes, over whatever was drawn before (the notes are drawn last, over the cursors).
+	public void drawNotes( GraphicsWrapper gw ) {
+		findVisibleRange( gw );
+		if ( gw.getScaleFactorInWorldSpaceUnitsPerPixel() * Constant.MIN_PIXELS_PER_BEAT_TO_DRAW_NOTES > 1 ) {
+			drawDensity( gw );
+			return;
+		}
+		// Each note is drawn as a single bar over its run of cells, and all the bars are filled at once.
+		notesToDraw.clear();
+		notes.findNotesIn( firstVisibleBeat, endVisibleBeat, notesToDraw );
+		gw.beginRectangles();
+		for ( int i = 0; i < notesToDraw.size(); ++i ) {
+			int note = notesToDraw.get( i );
+			int y = notes.getPitch( note );
+			if ( y < firstVisiblePitch || y >= endVisiblePitch )
+				continue;
+			int start = Math.max( notes.getOnset( note ), firstVisibleBeat );
+			int end = Math.min( Math.min( notes.getEnd( note ), endVisibleBeat ), numBeats );
+			if ( start < end )
+				gw.addRectangle( start+0.3f, -y-0.7f, end - start - 0.6f, 0.4f );
+		}
+		gw.setColor( 0, 0, 0 );
+		gw.fillRectangles();
+	}
+
+	private static IntList [] newDensityRuns() {
+		IntList [] runs = new IntList[ Constant.NUM_DENSITY_SHADES ];
+		for ( int i = 0; i < runs.length; ++i )
+			runs[ i ] = new IntList();
+		return runs;
+	}
+
+	// Draws, instead of the notes, how many cells are set in blocks of beats of each pitch, as shades of black.
+	// The blocks are taken from the coarsest level of the occupancy pyramid where they're still a few pixels wide,
+	// so the cost depends on the size of the view, not on the length of the score or its number of notes.
+	// If the pitches are less than a pixel high, neighbouring pitches are counted together.
+	// Blocks of the same shade next to each other are merged, and each shade is filled in one batch.
+	private void drawDensity( GraphicsWrapper gw ) {
+		float pixelsPerBeat = 1 / gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+		int level = 0;
+		while (
+			level + 1 < occupancy.getNumLevels()
+			&& occupancy.getBeatsPerBlock( level ) * pixelsPerBeat < Constant.MIN_PIXELS_PER_DENSITY_BLOCK
+		)
+			++level;
+		int beatsPerBlock = occupancy.getBeatsPerBlock( level );
+		int pitchesPerRow = 1;
+		while ( pitchesPerRow * pixelsPerBeat < 1 && pitchesPerRow < numPitches )
+			pitchesPerRow *= 2;
+		int cellsPerBlock = beatsPerBlock * pitchesPerRow;
+		int firstBlock = firstVisibleBeat / beatsPerBlock;
+		int endBlock = ( endVisibleBeat + beatsPerBlock - 1 ) / beatsPerBlock;
+		int numShades = densityRuns.length;
+		for ( IntList runs : densityRuns )
+			runs.clear();
+		for ( int y = firstVisiblePitch / pitchesPerRow * pitchesPerRow; y < endVisiblePitch; y += pitchesPerRow ) {
+			int endPitch = Math.min( y + pitchesPerRow, numPitches );
+			int runStart = firstBlock, runShade = 0;
+			for ( int b = firstBlock; b <= endBlock; ++b ) {
+				int shade = 0;
+				if ( b < endBlock ) {
+					int count = 0;
+					for ( int pitch = y; pitch < endPitch; ++pitch )
+						count += occupancy.getCount( level, b, pitch );
+					// any note at all gets the lightest shade
+					shade = (int)Math.min( numShades, ( (long)count * numShades + cellsPerBlock - 1 ) / cellsPerBlock );
+				}
+				if ( shade != runShade ) {
+					if ( runShade > 0 ) {
+						IntList runs = densityRuns[ runShade - 1 ];
+						runs.add( runStart );
+						runs.add( b );
+						runs.add( y );
+					}
+					runStart = b;
+					runShade = shade;
+				}
+			}
+		}
+		for ( int shade = 1; shade <= numShades; ++shade ) {
+			IntList runs = densityRuns[ shade - 1 ];
+			if ( runs.isEmpty() )
+				continue;
+			gw.beginRectangles();
+			for ( int i = 0; i < runs.size(); i += 3 ) {
+				int x0 = runs.get( i ) * beatsPerBlock;
+				int x1 = Math.min( runs.get( i+1 ) * beatsPerBlock, numBeats );
+				int y = runs.get( i+2 );
+				gw.addRectangle( x0, -Math.min( y + pitchesPerRow, numPitches ), x1 - x0, Math.min( pitchesPerRow, numPitches - y ) );
+			}
+			gw.setColor( 0, 0, 0, shade / (float)numShades );
+			gw.fillRectangles();
+		}
+	}
+
+	public AlignedRectangle2D getBoundingRectangle() {
+		return new AlignedRectangle2D(
+			new Point2D(0,-numPitches),
+			new Point2D(numBeats,0)
+		);
+	}
+
+	public int getNumBeats() {
+		return numBeats;
+	}
+
+	public void setNumBeats(int numBeats) {
+		if (numBeats <= maxNumBeats && numBeats >= 0){
+			grid.ensureNumBeats( numBeats );
+			occupancy.ensureNumBeats( numBeats );
+			this.numBeats = numBeats;
+			for ( ScoreListener listener : listeners )
+				listener.numBeatsChanged( numBeats );
+			fireLoopRegionChanged();
+		}
+	}
+
+	// A loop region that starts beyond the end of the score is ignored.
+	public boolean hasLoopRegion() {
+		return hasLoopRegion && loopStartBeat < numBeats;
+	}
+	public int getLoopStart() {
+		return hasLoopRegion() ? loopStartBeat : 0;
+	}
+	public int getLoopEnd() {
+		return hasLoopRegion() ? Math.min( loopEndBeat, numBeats ) : numBeats;
+	}
+
+	// The region is clamped to the score, and always holds at least one beat.
+	public void setLoopRegion( int start, int end ) {
+		if ( numBeats == 0 )
+			return;
+		end = Math.max( 1, Math.min( end, numBeats ) );
+		start = Math.max( 0, Math.min( start, end - 1 ) );
+		hasLoopRegion = true;
+		loopStartBeat = start;
+		loopEndBeat = end;
+		fireLoopRegionChanged();
+	}
+	public void clearLoopRegion() {
+		hasLoopRegion = false;
+		fireLoopRegionChanged();
+	}
+	public void setTempoMap( TempoMap tempoMap ) {
+		this.tempoMap = tempoMap;
+		for ( ScoreListener listener : listeners )
+			listener.tempoMapChanged( tempoMap );
+	}
+
+	private void fireLoopRegionChanged() {
+		for ( ScoreListener listener : listeners )
+			listener.loopRegionChanged( getLoopStart(), getLoopEnd() );
+	}
+
+	public boolean isCellSet( int beat, int pitch ) {
+		return grid.get( beat, pitch );
+	}
+
+	// Turns a cell on or off, keeping the notes in sync with the grid.
+	// Turning on a cell that touches notes of the same pitch extends them into a single longer note;
+	// turning off a cell in the middle of a note splits it in two.
+	public void setCell( int beat, int pitch, boolean flag ) {
+		if ( beat < 0 || beat >= numBeats || pitch < 0 || pitch >= numPitches )
+			return;
+		if ( flag == grid.get( beat, pitch ) )
+			return;
+		if ( flag ) {
+			grid.set( beat, pitch );
+			occupancy.add( beat, pitch, 1 );
+			int onset = beat, end = beat + 1, velocity = defaultVelocity;
+			int before = findNoteCovering( beat-1, pitch );
+			if ( before >= 0 ) {
+				onset = notes.getOnset( before );
+				velocity = notes.getVelocity( before );
+				removeNote( before );
+			}
+			int after = beat+1 < numBeats ? notes.findNoteStartingAt( beat+1, pitch ) : -1;
+			if ( after >= 0 ) {
+				end = notes.getEnd( after );
+				removeNote( after );
+			}
+			insertNote( onset, end - onset, pitch, velocity );
+		}
+		else {
+			int i = findNoteCovering( beat, pitch );
+			grid.clear( beat, pitch );
+			occupancy.add( beat, pitch, -1 );
+			if ( i < 0 )
+				return;
+			int onset = notes.getOnset( i ), end = notes.getEnd( i ), velocity = notes.getVelocity( i );
+			removeNote( i );
+			if ( onset < beat )
+				insertNote( onset, beat - onset, pitch, velocity );
+			if ( end > beat + 1 )
+				insertNote( beat + 1, end - beat - 1, pitch, velocity );
+		}
+	}
+
+	// Adds a note, merged with the notes of the same pitch that it overlaps, if any,
+	// so that each cell stays covered by at most one note, and adding the same note twice changes nothing.
+	// Notes that only touch it, end to start, are left separate, so back-to-back notes are still attacked one by one.
+	// The score is lengthened if necessary to hold the note.
+	public void addNote( int onset, int duration, int pitch, int velocity ) {
+		if ( onset < 0 || duration <= 0 || pitch < 0 || pitch >= numPitches )
+			return;
+		int end = Math.min( onset + duration, maxNumBeats );
+		if ( end <= onset )
+			return;
+		if ( end > numBeats )
+			setNumBeats( end );
+		// The notes of the same pitch that this one overlaps are merged into it.
+		overlappingNotes.clear();
+		notes.findNotesIn( onset, end, overlappingNotes );
+		for ( int k = 0; k < overlappingNotes.size(); ++k ) {
+			int i = overlappingNotes.get( k );
+			if ( notes.getPitch( i ) == pitch && notes.getOnset( i ) <= onset && notes.getEnd( i ) >= end && notes.getVelocity( i ) == velocity )
+				return; // already there, e.g. when the same notes are read again
+		}
+		int newOnset = onset, newEnd = end;
+		for ( int k = overlappingNotes.size() - 1; k >= 0; --k ) { // backward, so removing a note doesn't move those left
+			int i = overlappingNotes.get( k );
+			if ( notes.getPitch( i ) != pitch )
+				continue;
+			newOnset = Math.min( newOnset, notes.getOnset( i ) );
+			newEnd = Math.max( newEnd, notes.getEnd( i ) );
+			removeNote( i );
+		}
+		for ( int x = newOnset; x < newEnd; ++x ) {
+			if ( ! grid.get( x, pitch ) ) {
+				grid.set( x, pitch );
+				occupancy.add( x, pitch, 1 );
+			}
+		}
+		insertNote( newOnset, newEnd - newOnset, pitch, velocity );
+	}
+
+	public void clear() {
+		grid.clearAll();
+		occupancy.clearAll();
+		notes.clear();
+		for ( ScoreListener listener : listeners )
+			listener.scoreCleared();
+	}
+
+	// Writes the notes, one per line (see readNotes()).
+	public void writeNotes( Writer writer ) throws IOException {
+		String note = "";
+
+		// One line per note; readers of the older format, which only had x and y, still work.
+		for(int i = 0; i < notes.size(); i++){
+			writer.write(note+" x: "+notes.getOnset(i)+" y: "+notes.getPitch(i)
+				+" d: "+notes.getDuration(i)+" v: "+notes.getVelocity(i)+"\n");
+		}
+	}
+
+	// Adds the notes read from the given reader, as written by writeNotes(),
+	// or in the older format of one line per cell, with only x and y.
+	// The score is lengthened if necessary to hold the notes.
+	public void readNotes( BufferedReader reader ) throws IOException {
+		String []note;
+		String tmp = "";
+
+		while( (tmp = reader.readLine()) != null ){
+
+			note = tmp.split("\\s+");
+
+			int xNote = Integer.valueOf(note[2]);
+			int yNote = Integer.valueOf(note[4]);
+
+			if ( note.length >= 9 ) {
+				int duration = Integer.valueOf(note[6]);
+				int velocity = Integer.valueOf(note[8]);
+				addNote(xNote, duration, yNote, velocity);
+			}
+			else {
+				// older format, with one line per cell
+				if ( xNote >= numBeats )
+					setNumBeats( Math.min( xNote + 1, maxNumBeats ) );
+				setCell(xNote, yNote, true);
+			}
+		}
+	}
+
+	// Returns the index of the note of the given pitch sounding during the given beat, or -1 if there is none.
+	// The grid is tested first, so the interval index isn't brought up to date for an empty cell.
+	private int findNoteCovering( int beat, int pitch ) {
+		if ( beat < 0 || beat >= numBeats || ! grid.get( beat, pitch ) )
+			return -1;
+		return notes.findNoteAt( beat, pitch );
+	}
+
+	public void addScoreListener( ScoreListener listener ) {
+		listeners.add( listener );
+	}
+
+	// All changes to the notes go through these two methods, which inform the listeners.
+	private void insertNote( int onset, int duration, int pitch, int velocity ) {
+		notes.add( onset, duration, pitch, velocity );
+		for ( ScoreListener listener : listeners )
+			listener.noteAdded( onset, duration, pitch, velocity );
+	}
+	private void removeNote( int i ) {
+		int onset = notes.getOnset( i ), duration = notes.getDuration( i );
+		int pitch = notes.getPitch( i ), velocity = notes.getVelocity( i );
+		notes.remove( i );
+		for ( ScoreListener listener : listeners )
+			listener.noteRemoved( onset, duration, pitch, velocity );
+	}
+
+}
@@ -0,0 +1,85 @@
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+// The background of a score (see Score.drawBackground()), kept in an image
+// that is only redrawn when something it depends on changes:
+// the view (pan and zoom), the size of the window, the size of the score, or highlightMajorCScale.
+// Otherwise, drawing the background is a single copy of the image.
+//
+// The image is opaque, filled with the given color behind the lines, so it replaces clearing the window.
+// It has as many pixels as the device (e.g. twice as many on a high density display).
+public class ScoreBackground {
+
+	private Color color;
+	private BufferedImage image = null;
+	private GraphicsWrapper imageGW = new GraphicsWrapper();
+
+	// What the image was drawn for.
+	private float offsetXInPixels, offsetYInPixels, scaleFactorInWorldSpaceUnitsPerPixel;
+	private int widthInPixels, heightInPixels;
+	private double deviceScaleX, deviceScaleY;
+	private int numBeats, numPitches;
+	private boolean highlightMajorCScale;
+
+	public ScoreBackground( Color color ) {
+		this.color = color;
+	}
+
+	// Fills the window with the color and draws the background of the given score over it,
+	// in the view of the given GraphicsWrapper, whose coordinate system is then set to world space units.
+	public void draw( GraphicsWrapper gw, Score score, boolean highlightMajorCScale ) {
+		AffineTransform deviceTransform = gw.originalTransform;
+		if (
+			image == null
+			|| gw.getOffsetXInPixels() != offsetXInPixels
+			|| gw.getOffsetYInPixels() != offsetYInPixels
+			|| gw.getScaleFactorInWorldSpaceUnitsPerPixel() != scaleFactorInWorldSpaceUnitsPerPixel
+			|| gw.getWidth() != widthInPixels
+			|| gw.getHeight() != heightInPixels
+			|| deviceTransform.getScaleX() != deviceScaleX
+			|| deviceTransform.getScaleY() != deviceScaleY
+			|| score.numBeats != numBeats
+			|| score.numPitches != numPitches
+			|| highlightMajorCScale != this.highlightMajorCScale
+		) {
+			offsetXInPixels = gw.getOffsetXInPixels();
+			offsetYInPixels = gw.getOffsetYInPixels();
+			scaleFactorInWorldSpaceUnitsPerPixel = gw.getScaleFactorInWorldSpaceUnitsPerPixel();
+			widthInPixels = gw.getWidth();
+			heightInPixels = gw.getHeight();
+			deviceScaleX = deviceTransform.getScaleX();
+			deviceScaleY = deviceTransform.getScaleY();
+			numBeats = score.numBeats;
+			numPitches = score.numPitches;
+			this.highlightMajorCScale = highlightMajorCScale;
+			render( gw, score );
+		}
+		gw.setCoordinateSystemToPixels();
+		gw.drawImage( image, 0, 0, widthInPixels, heightInPixels );
+		gw.setCoordinateSystemToWorldSpaceUnits();
+	}
+
+	private void render( GraphicsWrapper gw, Score score ) {
+		int w = Math.max( 1, (int)Math.ceil( widthInPixels * deviceScaleX ) );
+		int h = Math.max( 1, (int)Math.ceil( heightInPixels * deviceScaleY ) );
+		if ( image == null || image.getWidth() != w || image.getHeight() != h )
+			image = new BufferedImage( w, h, BufferedImage.TYPE_INT_RGB );
+		Graphics2D g2 = image.createGraphics();
+		try {
+			g2.setColor( color );
+			g2.fillRect( 0, 0, w, h );
+			g2.scale( deviceScaleX, deviceScaleY );
+			imageGW.set( g2 );
+			imageGW.copyViewFrom( gw );
+			imageGW.setCoordinateSystemToWorldSpaceUnits();
+			score.drawBackground( imageGW, highlightMajorCScale );
+		}
+		finally {
+			g2.dispose();
+		}
+	}
+
+}
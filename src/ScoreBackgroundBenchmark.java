@@ -0,0 +1,99 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+// Measures how long a frame takes to draw with the background of the score redrawn every frame (before ScoreBackground),
+// and copied from a ScoreBackground (after), at several zoom levels, into a BufferedImage without a window.
+// The notes are drawn the same way in both cases (without a NoteTileCache), so only the background differs.
+// Nothing is shown, so this works with -Djava.awt.headless=true.
+//
+// Arguments, all optional: the number of frames per zoom level, the width and height of the window,
+// and a notes file to draw (see Score.readNotes()) instead of a score of random notes, e.g.
+//    java -Djava.awt.headless=true ScoreBackgroundBenchmark 1000 1024 768 notes.txt
+public class ScoreBackgroundBenchmark {
+
+	public static final int DEFAULT_NUM_FRAMES = 500;
+	// Relative to the whole score being framed: below 1 zooms out, above 1 zooms in.
+	private static final float [] ZOOM_FACTORS = { 0.25f, 1, 4, 16, 64 };
+	private static final Color BACKGROUND_COLOR = new Color( 0.4f, 0.4f, 0.4f );
+
+	private static Score makeScore() {
+		Score score = new Score();
+		Random random = new Random( 1 );
+		for ( int i = 0; i < 400; ++i )
+			score.addNote( random.nextInt( score.numBeats ), 1 + random.nextInt( 8 ), random.nextInt( score.numPitches ), 64 + random.nextInt( 64 ) );
+		return score;
+	}
+
+	// Draws the given number of frames, and returns how long each one took, in nanoseconds, sorted.
+	// Each frame starts and ends in the coordinate system of pixels, as paintComponent() does.
+	private static long [] drawFrames( Score score, GraphicsWrapper gw, Graphics2D g2, ScoreBackground background, int numFrames ) {
+		long [] durations = new long[ numFrames ];
+		for ( int i = 0; i < numFrames; ++i ) {
+			long startTime = System.nanoTime();
+			gw.setupForDrawing();
+			if ( background == null ) {
+				// what the canvas did before the background was cached: clear the window, then draw everything
+				g2.setColor( BACKGROUND_COLOR );
+				g2.fillRect( 0, 0, gw.getWidth(), gw.getHeight() );
+			}
+			gw.setCoordinateSystemToWorldSpaceUnits();
+			gw.enableAlphaBlending();
+			score.draw( gw, background, null, true, -1, -1, -1 );
+			gw.setCoordinateSystemToPixels();
+			durations[ i ] = System.nanoTime() - startTime;
+		}
+		Arrays.sort( durations );
+		return durations;
+	}
+
+	private static String describe( long [] sortedDurations ) {
+		long sum = 0;
+		for ( long d : sortedDurations )
+			sum += d;
+		return String.format( "median %7.3f ms, 90%% %7.3f ms, mean %7.3f ms",
+			sortedDurations[ sortedDurations.length / 2 ] * 1e-6,
+			sortedDurations[ sortedDurations.length * 9 / 10 ] * 1e-6,
+			sum * 1e-6 / sortedDurations.length
+		);
+	}
+
+	public static void main( String [] args ) throws IOException {
+		int numFrames = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : DEFAULT_NUM_FRAMES;
+		int width = args.length > 2 ? Integer.parseInt( args[ 1 ] ) : Constant.INITIAL_WINDOW_WIDTH;
+		int height = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : Constant.INITIAL_WINDOW_HEIGHT;
+		Score score = args.length > 3 ? ScoreImageExporter.readScore( new File( args[ 3 ] ) ) : makeScore();
+
+		BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+		Graphics2D g2 = image.createGraphics();
+		try {
+			GraphicsWrapper gw = new GraphicsWrapper();
+			gw.set( g2 );
+			gw.resize( width, height );
+			System.out.println( score.notes.size() + " notes, " + numFrames + " frames of " + width + "x" + height + " pixels per zoom level" );
+			for ( float zoomFactor : ZOOM_FACTORS ) {
+				gw.frame( score.getBoundingRectangle(), false );
+				gw.zoomIn( zoomFactor );
+				ScoreBackground background = new ScoreBackground( BACKGROUND_COLOR );
+				// warm-up, so the JIT has compiled the code, and the background has been drawn once
+				drawFrames( score, gw, g2, null, numFrames );
+				drawFrames( score, gw, g2, background, numFrames );
+
+				long [] before = drawFrames( score, gw, g2, null, numFrames );
+				long [] after = drawFrames( score, gw, g2, background, numFrames );
+				System.out.println( "zoom " + zoomFactor + ":" );
+				System.out.println( "  background redrawn: " + describe( before ) );
+				System.out.println( "  background copied:  " + describe( after ) );
+				System.out.println( String.format( "  speed-up of the median: %.2fx", before[ numFrames / 2 ] / (double)after[ numFrames / 2 ] ) );
+			}
+		}
+		finally {
+			g2.dispose();
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+// Draws scores into images, and writes them as PNG files, without a window:
+// a GraphicsWrapper is set on a BufferedImage, and Score.draw() is called as it would be by MyCanvas.
+// Nothing here needs a display, so this works with -Djava.awt.headless=true.
+//
+// exportAll() writes an image of each score of a directory (the notes files saved by MyCanvas.saveNotes()),
+// in parallel on a ForkJoinPool; e.g. to make thumbnails of every score in a directory:
+//    java -Djava.awt.headless=true ScoreImageExporter scores thumbnails 256 128
+public class ScoreImageExporter {
+
+	public static final String NOTES_FILE_SUFFIX = ".txt";
+	public static final String IMAGE_FILE_SUFFIX = ".png";
+	public static final Charset NOTES_CHARSET = Charset.forName( "US-ASCII" );
+
+	private int widthInPixels, heightInPixels;
+	private Color backgroundColor = new Color( 0.4f, 0.4f, 0.4f );
+	private boolean highlightMajorCScale = true;
+
+	// The images have the given size, in pixels.
+	public ScoreImageExporter( int widthInPixels, int heightInPixels ) {
+		if ( widthInPixels <= 0 || heightInPixels <= 0 )
+			throw new IllegalArgumentException( "the size of the images must be positive" );
+		this.widthInPixels = widthInPixels;
+		this.heightInPixels = heightInPixels;
+	}
+
+	public int getWidth() { return widthInPixels; }
+	public int getHeight() { return heightInPixels; }
+	public void setBackgroundColor( Color c ) { backgroundColor = c; }
+	public void setHighlightMajorCScale( boolean flag ) { highlightMajorCScale = flag; }
+
+	// Draws the given region of the score, in world space units (see Score.getBoundingRectangle()),
+	// or all of the score if the region is null, centered in a new image, keeping its proportions.
+	// Calls may run in parallel, as long as they are given different scores.
+	public BufferedImage render( Score score, AlignedRectangle2D viewport ) {
+		BufferedImage image = new BufferedImage( widthInPixels, heightInPixels, BufferedImage.TYPE_INT_RGB );
+		Graphics2D g2 = image.createGraphics();
+		try {
+			g2.setColor( backgroundColor );
+			g2.fillRect( 0, 0, widthInPixels, heightInPixels );
+			GraphicsWrapper gw = new GraphicsWrapper();
+			gw.set( g2 );
+			gw.resize( widthInPixels, heightInPixels );
+			gw.frame( viewport != null ? viewport : score.getBoundingRectangle(), false );
+			gw.setupForDrawing();
+			gw.setCoordinateSystemToWorldSpaceUnits();
+			gw.enableAlphaBlending();
+			// no cursors
+			score.draw( gw, highlightMajorCScale, -1, -1, -1 );
+		}
+		finally {
+			g2.dispose();
+		}
+		return image;
+	}
+
+	public void export( Score score, AlignedRectangle2D viewport, File file ) throws IOException {
+		ImageIO.write( render( score, viewport ), "png", file );
+	}
+
+	// Reads a score from a notes file (see Score.readNotes()).
+	public static Score readScore( File file ) throws IOException {
+		Score score = new Score();
+		try ( BufferedReader reader = Files.newBufferedReader( file.toPath(), NOTES_CHARSET ) ) {
+			score.readNotes( reader );
+		}
+		return score;
+	}
+
+	// Writes an image of all of each score of the input directory into the output directory,
+	// with the same name, ending in .png instead of .txt,
+	// with the given number of threads (the parallelism of the ForkJoinPool).
+	// Returns how many images were written; failures are logged.
+	public int exportAll( File inputDirectory, File outputDirectory, int numThreads ) {
+		File [] inputs = inputDirectory.listFiles( new FilenameFilter() {
+			public boolean accept( File directory, String name ) {
+				return name.endsWith( NOTES_FILE_SUFFIX );
+			}
+		} );
+		if ( inputs == null ) {
+			Logger.getLogger( ScoreImageExporter.class.getName() ).log( Level.SEVERE, "cannot list " + inputDirectory );
+			return 0;
+		}
+		Arrays.sort( inputs );
+		if ( inputs.length == 0 )
+			return 0;
+		outputDirectory.mkdirs();
+		ForkJoinPool pool = new ForkJoinPool( numThreads );
+		try {
+			return pool.invoke( new ExportTask( inputs, 0, inputs.length, outputDirectory ) );
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	// Exports the files from start to end, splitting the range in two until a single file is left.
+	private class ExportTask extends RecursiveTask< Integer > {
+		private static final long serialVersionUID = 1L;
+
+		private File [] inputs;
+		private int start, end;
+		private File outputDirectory;
+
+		ExportTask( File [] inputs, int start, int end, File outputDirectory ) {
+			this.inputs = inputs;
+			this.start = start;
+			this.end = end;
+			this.outputDirectory = outputDirectory;
+		}
+
+		protected Integer compute() {
+			if ( end - start == 1 )
+				return exportOne( inputs[ start ] ) ? 1 : 0;
+			int middle = ( start + end ) >>> 1;
+			ExportTask left = new ExportTask( inputs, start, middle, outputDirectory );
+			ExportTask right = new ExportTask( inputs, middle, end, outputDirectory );
+			left.fork();
+			int numWritten = right.compute();
+			return numWritten + left.join();
+		}
+
+		private boolean exportOne( File input ) {
+			String name = input.getName();
+			name = name.substring( 0, name.length() - NOTES_FILE_SUFFIX.length() ) + IMAGE_FILE_SUFFIX;
+			try {
+				export( readScore( input ), null, new File( outputDirectory, name ) );
+				return true;
+			} catch ( IOException | RuntimeException e ) {
+				// a malformed notes file fails with a NumberFormatException or an ArrayIndexOutOfBoundsException
+				Logger.getLogger( ScoreImageExporter.class.getName() ).log( Level.SEVERE, input.toString(), e );
+				return false;
+			}
+		}
+	}
+
+	// Arguments: input directory, output directory, and optionally the width and height of the images.
+	public static void main( String [] args ) {
+		if ( args.length != 2 && args.length != 4 ) {
+			System.out.println( "usage: ScoreImageExporter <directory of notes files> <output directory> [ <width> <height> ]" );
+			System.exit( 1 );
+		}
+		int width = Constant.INITIAL_WINDOW_WIDTH, height = Constant.INITIAL_WINDOW_HEIGHT;
+		if ( args.length == 4 ) {
+			width = Integer.parseInt( args[ 2 ] );
+			height = Integer.parseInt( args[ 3 ] );
+		}
+		ScoreImageExporter exporter = new ScoreImageExporter( width, height );
+		int numWritten = exporter.exportAll( new File( args[ 0 ] ), new File( args[ 1 ] ), Runtime.getRuntime().availableProcessors() );
+		System.out.println( "exported " + numWritten + " images" );
+	}
+
+}
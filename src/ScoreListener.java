@@ -0,0 +1,14 @@
+
+// Receives the changes made to the notes of a Score,
+// so that other representations of the score (such as a MIDI sequence) can be patched
+// instead of being rebuilt.
+// Callbacks happen on the thread that edits the score.
+public interface ScoreListener {
+	public void noteAdded( int onset, int duration, int pitch, int velocity );
+	public void noteRemoved( int onset, int duration, int pitch, int velocity );
+	public void scoreCleared();
+	public void numBeatsChanged( int numBeats );
+	// Also called when the number of beats changes, since the region is clamped to the score.
+	public void loopRegionChanged( int loopStart, int loopEnd );
+	public void tempoMapChanged( TempoMap tempoMap );
+}
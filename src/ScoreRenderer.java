@@ -0,0 +1,252 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.*;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+// Renders scores to WAV files offline, as fast as the CPU allows,
+// with the JDK's software synthesizer.
+//
+// Instead of opening an audio line, the synthesizer is opened as a stream
+// (AudioSynthesizer.openStream()) which computes samples only when they are read.
+// The notes of each beat are sent, timestamped, just before the samples of that beat are read,
+// so memory use doesn't grow with the length of the score.
+//
+// AudioSynthesizer is not part of the public API, so openStream() is called by reflection.
+// On Java 9 and later, this needs the JVM option
+//    --add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED
+// (given by SimplePianoRoll.launch; older JVMs accept it along with -XX:+IgnoreUnrecognizedVMOptions).
+// checkAvailability() tells, without rendering anything, whether openStream() can be called.
+public class ScoreRenderer {
+
+	public static final String ADD_EXPORTS_OPTION = "--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED";
+
+	public static final AudioFormat DEFAULT_FORMAT = new AudioFormat( 44100, 16, 2, true, false );
+
+	// How long to go on rendering after the last beat, so that the notes' release isn't cut off.
+	public static final long TAIL_IN_MICROSECONDS = 1000000L;
+
+	// The notes are sent this far ahead of the samples being read,
+	// in case the synthesizer renders a little ahead of what is read from it.
+	private static final long LOOKAHEAD_IN_MICROSECONDS = 100000L;
+
+	private static final int CHANNEL = 0;
+
+	private AudioFormat format;
+
+	public ScoreRenderer() {
+		this( DEFAULT_FORMAT );
+	}
+	public ScoreRenderer( AudioFormat format ) {
+		this.format = format;
+	}
+
+	// Renders the given score into a WAV file, following its tempo map.
+	// The score should be a snapshot (see Score.snapshot()) if it may be edited meanwhile.
+	// Each call uses a synthesizer of its own, so calls may run in parallel.
+	public void render( Score score, File file ) throws IOException, MidiUnavailableException {
+		Synthesizer synthesizer = MidiSystem.getSynthesizer();
+		AudioInputStream pcm = openStream( synthesizer, format );
+		try {
+			ScoreStream stream = new ScoreStream( score, pcm, synthesizer.getReceiver() );
+			AudioSystem.write(
+				new AudioInputStream( stream, format, stream.getNumFrames() ),
+				AudioFileFormat.Type.WAVE,
+				file
+			);
+		}
+		finally {
+			synthesizer.close();
+		}
+	}
+
+	// Renders each score into the corresponding file, with the given number of threads.
+	// Returns how many files were written; failures are logged.
+	public int renderAll( List<Score> scores, List<File> files, int numThreads ) {
+		ExecutorService pool = Executors.newFixedThreadPool( numThreads );
+		try {
+			List<Future<File>> results = new ArrayList<Future<File>>();
+			for ( int i = 0; i < scores.size(); ++i ) {
+				final Score score = scores.get( i );
+				final File file = files.get( i );
+				results.add( pool.submit( new Callable<File>() {
+					public File call() throws Exception {
+						render( score, file );
+						return file;
+					}
+				} ) );
+			}
+			int numWritten = 0;
+			for ( Future<File> result : results ) {
+				try {
+					result.get();
+					++numWritten;
+				} catch ( ExecutionException e ) {
+					Logger.getLogger( ScoreRenderer.class.getName() ).log( Level.SEVERE, null, e.getCause() );
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			return numWritten;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// Throws an exception explaining why render() can't work in this JVM, if it can't.
+	// openStream() is invoked with an argument of the wrong type: the access check comes first,
+	// so this fails with an IllegalAccessException if the method can't be reached,
+	// and with an IllegalArgumentException, before anything is opened, if it can.
+	public static void checkAvailability() throws MidiUnavailableException {
+		Synthesizer synthesizer = MidiSystem.getSynthesizer();
+		Method openStream = getOpenStream( synthesizer );
+		try {
+			openStream.invoke( synthesizer, "", null );
+		} catch ( IllegalArgumentException e ) {
+			return;
+		} catch ( IllegalAccessException e ) {
+			throw newAccessException( e );
+		} catch ( InvocationTargetException e ) {
+			return; // unreachable, the arguments being wrong, but the method could be called
+		}
+	}
+
+	private static Method getOpenStream( Synthesizer synthesizer ) throws MidiUnavailableException {
+		try {
+			return synthesizer.getClass().getMethod( "openStream", AudioFormat.class, Map.class );
+		} catch ( NoSuchMethodException e ) {
+			throw (MidiUnavailableException)new MidiUnavailableException( "the synthesizer cannot render to a stream" ).initCause( e );
+		}
+	}
+
+	private static MidiUnavailableException newAccessException( IllegalAccessException e ) {
+		return (MidiUnavailableException)new MidiUnavailableException(
+			"the synthesizer's openStream() can't be reached; run Java with the option " + ADD_EXPORTS_OPTION
+		).initCause( e );
+	}
+
+	private static AudioInputStream openStream( Synthesizer synthesizer, AudioFormat format ) throws MidiUnavailableException {
+		try {
+			return (AudioInputStream)getOpenStream( synthesizer ).invoke( synthesizer, format, null );
+		} catch ( InvocationTargetException e ) {
+			if ( e.getCause() instanceof MidiUnavailableException )
+				throw (MidiUnavailableException)e.getCause();
+			throw (MidiUnavailableException)new MidiUnavailableException( "cannot open the synthesizer as a stream" ).initCause( e.getCause() );
+		} catch ( IllegalAccessException e ) {
+			throw newAccessException( e );
+		}
+	}
+
+	// The synthesizer's samples, with the notes of each beat sent just before the samples of the beat are read.
+	private class ScoreStream extends InputStream {
+		private Score score;
+		private AudioInputStream pcm;
+		private Receiver receiver;
+		private ShortMessage message = new ShortMessage();
+		private long [] stoppingPitches;
+		private IntList notesOfBeat = new IntList();
+
+		private int frameSize = format.getFrameSize();
+		private long numFrames;
+		private long framesRead = 0;
+		private int nextBeat = 0; // the first beat whose notes haven't been sent yet
+
+		public ScoreStream( Score score, AudioInputStream pcm, Receiver receiver ) {
+			this.score = score;
+			this.pcm = pcm;
+			this.receiver = receiver;
+			stoppingPitches = new long[ ( score.numPitches + 63 ) / 64 ];
+			numFrames = getFrameOfMicrosecond( getMicrosecondOfBeat( score.numBeats ) + TAIL_IN_MICROSECONDS );
+		}
+
+		public long getNumFrames() { return numFrames; }
+
+		private long getMicrosecondOfBeat( int beat ) {
+			return Math.round( score.tempoMap.getTimeOfBeat( beat ) / 1000 );
+		}
+		private long getFrameOfMicrosecond( long microsecond ) {
+			return (long)( microsecond * (double)format.getFrameRate() / 1000000 );
+		}
+
+		private void send( int command, int data1, int data2, long timestamp ) throws IOException {
+			try {
+				message.setMessage( command, CHANNEL, data1, data2 );
+			} catch ( InvalidMidiDataException e ) {
+				throw new IOException( e );
+			}
+			receiver.send( message, timestamp );
+		}
+
+		// Sends the notes that stop and start at the given beat.
+		// Notes still sounding at the end of the score are all turned off there.
+		private void sendBeat( int beat ) throws IOException {
+			long timestamp = getMicrosecondOfBeat( beat );
+			NoteList notes = score.notes;
+			Arrays.fill( stoppingPitches, 0 );
+			notes.addPitchesStoppingAt( beat, stoppingPitches );
+			for ( int w = 0; w < stoppingPitches.length; ++w ) {
+				for ( long bits = stoppingPitches[w]; bits != 0; bits &= bits - 1 ) {
+					int pitch = w * 64 + Long.numberOfTrailingZeros( bits );
+					send( ShortMessage.NOTE_OFF, pitch + Score.midiNoteNumberOfLowestPitch, 0, timestamp );
+				}
+			}
+			if ( beat == score.numBeats ) {
+				send( ShortMessage.CONTROL_CHANGE, 123, 0, timestamp ); // all notes off
+				return;
+			}
+			notesOfBeat.clear();
+			notes.findNotesStartingIn( beat, beat + 1, notesOfBeat );
+			for ( int i = 0; i < notesOfBeat.size(); ++i ) {
+				int note = notesOfBeat.get( i );
+				send(
+					ShortMessage.NOTE_ON,
+					notes.getPitch( note ) + Score.midiNoteNumberOfLowestPitch, notes.getVelocity( note ),
+					timestamp
+				);
+			}
+		}
+
+		// As with AudioInputStream, samples can only be read in whole frames.
+		public int read() throws IOException {
+			throw new IOException( "cannot read a single byte of a " + frameSize + " byte frame" );
+		}
+
+		public int read( byte [] b, int off, int len ) throws IOException {
+			if ( framesRead >= numFrames )
+				return -1;
+			// send the notes of every beat that starts within (or shortly after) the samples about to be read
+			long lastFrame = Math.min( numFrames, framesRead + len / frameSize );
+			long lastFrameToSend = lastFrame + getFrameOfMicrosecond( LOOKAHEAD_IN_MICROSECONDS );
+			while ( nextBeat <= score.numBeats && getFrameOfMicrosecond( getMicrosecondOfBeat( nextBeat ) ) < lastFrameToSend )
+				sendBeat( nextBeat++ );
+			int n = pcm.read( b, off, (int)( lastFrame - framesRead ) * frameSize );
+			if ( n > 0 )
+				framesRead += n / frameSize;
+			return n;
+		}
+
+		public void close() throws IOException {
+			pcm.close();
+		}
+	}
+
+}
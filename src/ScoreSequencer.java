@@ -0,0 +1,442 @@
+
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.*;
+
+// Plays a Score with the JDK's Sequencer instead of a Java thread,
+// so that the timing of the notes is handled by the sequencer itself.
+//
+// The score is compiled into a single-track Sequence, with one tick per TICKS_PER_BEAT-th of a beat,
+// which loops over the score's loop region (or plays once, from the start of the region).
+// Afterward, each change to the score's notes is patched into the track with Track.add() and Track.remove()
+// (only the note-on and note-off events of the notes that changed are removed or added),
+// so editing during playback doesn't rebuild the sequence.
+// The tempo map is written into the track as tempo events (see writeTempoEvents()),
+// which are kept in a list of their own, so that only those that change are replaced.
+//
+// The JDK's sequencer reads its tracks by index while playing, remembering the index of the next event to play.
+// Adding or removing an event after that index is safe; doing so before it
+// would have the sequencer play an event twice or skip one.
+// So an event is patched right away only if it is more than SAFE_MARGIN_IN_TICKS past the tick the sequencer has reached
+// (or if the sequencer is stopped); otherwise the patch is held in a list of pending patches.
+// applyChanges(), called by the playback thread once per beat, makes the pending patches that have become safe,
+// i.e. those the sequencer will reach again after having looped back, at which point it finds its place in the track anew.
+// When the score is cleared, the track is replaced instead: a new sequence is given to the sequencer,
+// which is then moved back to the tick it had reached. This stops the notes sounding, as it should since the score is empty.
+public class ScoreSequencer implements ScoreListener {
+
+	public static final int TICKS_PER_BEAT = 24;
+	private static final int CHANNEL = 0;
+	private static final int TEMPO_META_TYPE = 0x51;
+	// The sequencer moves on every millisecond or so, and a tick lasts tens of milliseconds,
+	// so an event this many ticks ahead of the sequencer's position can't be reached while it is being patched.
+	private static final int SAFE_MARGIN_IN_TICKS = 2;
+
+	private Synthesizer synthesizer;
+	private Sequencer sequencer = null;
+	private Sequence sequence = null;
+	private Track track = null;
+	// The patches that weren't safe to make yet, in the order they were asked for:
+	// each event is to be added to the track if it is in ``eventsAdded'', removed otherwise.
+	private ArrayList< MidiEvent > pendingEvents = new ArrayList< MidiEvent >();
+	private ArrayList< Boolean > eventsAdded = new ArrayList< Boolean >();
+	// The tick the sequencer had reached when the patches being made were asked for,
+	// or -1 if the sequencer isn't running, in which case any patch is safe.
+	private long sequencerTick = -1;
+
+	// The tempo events of the track (including those waiting to be added), sorted by tick.
+	private ArrayList< MidiEvent > tempoEvents = new ArrayList< MidiEvent >();
+	// scratch space for writeTempoEvents(): the beats and microseconds per beat of the tempo events wanted
+	private IntList wantedTempoBeats = new IntList();
+	private IntList wantedTempoMicroseconds = new IntList();
+
+	private int numBeats = 0;
+	private int loopStartBeat = 0;
+	private int loopEndBeat = 0;
+	private boolean isLooping = true;
+	private TempoMap tempoMap = new TempoMap( Score.defaultTempoInBPM );
+
+	public ScoreSequencer( Synthesizer synthesizer ) {
+		this.synthesizer = synthesizer;
+	}
+
+	public synchronized boolean isOpen() { return sequencer != null; }
+
+	// Opens a sequencer that isn't connected to the default synthesizer,
+	// and connects it to ours.
+	public synchronized void open() {
+		if ( sequencer != null )
+			return;
+		try {
+			sequencer = MidiSystem.getSequencer( false );
+			sequencer.open();
+			sequencer.getTransmitter().setReceiver( synthesizer.getReceiver() );
+		} catch ( MidiUnavailableException e ) {
+			Logger.getLogger( ScoreSequencer.class.getName() ).log( Level.SEVERE, null, e );
+			sequencer = null;
+		}
+	}
+
+	public synchronized void close() {
+		if ( sequencer == null )
+			return;
+		sequencer.close();
+		sequencer = null;
+		sequence = null;
+		track = null;
+		pendingEvents.clear();
+		eventsAdded.clear();
+		tempoEvents.clear();
+	}
+
+	// Compiles the whole score into a new sequence.
+	// This only needs to be done once; afterward, the track is kept up to date
+	// through the ScoreListener callbacks.
+	public synchronized void load( Score score ) {
+		if ( sequencer == null )
+			return;
+		try {
+			sequence = new Sequence( Sequence.PPQ, TICKS_PER_BEAT );
+			track = sequence.createTrack();
+			pendingEvents.clear();
+			eventsAdded.clear();
+			tempoEvents.clear();
+			sequencerTick = -1; // the sequencer isn't playing this sequence yet
+			for ( int i = 0; i < score.notes.size(); ++i ) {
+				addNoteEvents(
+					score.notes.getOnset( i ), score.notes.getDuration( i ),
+					score.notes.getPitch( i ), score.notes.getVelocity( i )
+				);
+			}
+			numBeats = score.numBeats;
+			loopStartBeat = score.getLoopStart();
+			loopEndBeat = score.getLoopEnd();
+			tempoMap = score.tempoMap;
+			writeTempoEvents();
+			setEndOfTrack();
+			sequencer.setSequence( sequence );
+			updateLoopPoints();
+		} catch ( InvalidMidiDataException e ) {
+			Logger.getLogger( ScoreSequencer.class.getName() ).log( Level.SEVERE, null, e );
+		}
+	}
+
+	// Makes the pending patches that have become safe, i.e. that the sequencer has looped back before.
+	// This is called by the playback thread once per beat, and doesn't wait for the sequencer.
+	public synchronized void applyChanges() {
+		if ( track != null )
+			startPatching();
+	}
+
+	// Notes the tick the sequencer has reached, and makes the pending patches that are safe from there.
+	// This is called before any patch, so that the patches to a given event are made in the order they were asked for.
+	private void startPatching() {
+		sequencerTick = sequencer != null && sequencer.isRunning() ? sequencer.getTickPosition() : -1;
+		int n = 0;
+		for ( int i = 0; i < pendingEvents.size(); ++i ) {
+			MidiEvent event = pendingEvents.get( i );
+			boolean isAdded = eventsAdded.get( i );
+			if ( isSafeToPatch( event ) ) {
+				if ( isAdded )
+					track.add( event );
+				else
+					track.remove( event );
+			}
+			else {
+				pendingEvents.set( n, event );
+				eventsAdded.set( n, isAdded );
+				++n;
+			}
+		}
+		pendingEvents.subList( n, pendingEvents.size() ).clear();
+		eventsAdded.subList( n, eventsAdded.size() ).clear();
+	}
+
+	private boolean isSafeToPatch( MidiEvent event ) {
+		return sequencerTick < 0 || event.getTick() > sequencerTick + SAFE_MARGIN_IN_TICKS;
+	}
+
+	public synchronized void start() {
+		if ( sequencer == null || sequence == null )
+			return;
+		if ( sequencer.isRunning() )
+			sequencer.stop();
+		startPatching(); // the sequencer being stopped, all the pending patches are made
+		sequencer.setTickPosition( noteOnTick( loopStartBeat ) );
+		sequencer.start();
+		sequencer.setTempoInMPQ( getMicrosecondsPerBeat( loopStartBeat ) );
+	}
+
+	public synchronized void stop() {
+		if ( sequencer != null && sequencer.isRunning() )
+			sequencer.stop();
+	}
+
+	public synchronized boolean isRunning() {
+		return sequencer != null && sequencer.isRunning();
+	}
+
+	// When not looping, the sequencer plays on past the end of the loop region,
+	// and it is up to the caller to stop it.
+	public synchronized void setLooping( boolean flag ) {
+		isLooping = flag;
+		updateLoopPoints();
+	}
+
+	// Returns the beat being played, or -1 if nothing is playing.
+	public synchronized int getCurrentBeat() {
+		if ( sequencer == null || ! sequencer.isRunning() )
+			return -1;
+		return (int)( sequencer.getTickPosition() / TICKS_PER_BEAT );
+	}
+
+	// The ScoreListener callbacks, which patch the track.
+
+	public synchronized void noteAdded( int onset, int duration, int pitch, int velocity ) {
+		if ( track == null )
+			return;
+		startPatching();
+		try {
+			addNoteEvents( onset, duration, pitch, velocity );
+		} catch ( InvalidMidiDataException e ) {
+			Logger.getLogger( ScoreSequencer.class.getName() ).log( Level.SEVERE, null, e );
+		}
+	}
+
+	public synchronized void noteRemoved( int onset, int duration, int pitch, int velocity ) {
+		if ( track == null )
+			return;
+		startPatching();
+		int midiNoteNumber = pitch + Score.midiNoteNumberOfLowestPitch;
+		removeEvent( findNoteEvent( noteOnTick( onset ), ShortMessage.NOTE_ON, midiNoteNumber ) );
+		removeEvent( findNoteEvent( noteOffTick( onset + duration ), ShortMessage.NOTE_OFF, midiNoteNumber ) );
+	}
+
+	// The track is replaced by an empty one, rather than having its events removed one by one:
+	// the sequencer is given a new sequence, which rewinds it, and is moved back to the tick it had reached.
+	public synchronized void scoreCleared() {
+		if ( track == null )
+			return;
+		try {
+			boolean wasRunning = sequencer.isRunning();
+			long tick = sequencer.getTickPosition();
+			sequence = new Sequence( Sequence.PPQ, TICKS_PER_BEAT );
+			track = sequence.createTrack();
+			pendingEvents.clear();
+			eventsAdded.clear();
+			tempoEvents.clear();
+			sequencerTick = -1;
+			writeTempoEvents();
+			setEndOfTrack();
+			sequencer.setSequence( sequence );
+			updateLoopPoints();
+			if ( wasRunning ) {
+				sequencer.setTickPosition( Math.min( tick, sequencer.getTickLength() ) );
+				sequencer.setTempoInMPQ( getMicrosecondsPerBeat( getCurrentBeat() ) );
+			}
+		} catch ( InvalidMidiDataException e ) {
+			Logger.getLogger( ScoreSequencer.class.getName() ).log( Level.SEVERE, null, e );
+		}
+	}
+
+	// Moving the end of the track doesn't change the index of its events, so it is done right away.
+	public synchronized void numBeatsChanged( int numBeats ) {
+		this.numBeats = numBeats;
+		if ( track == null )
+			return;
+		setEndOfTrack();
+		updateLoopPoints();
+	}
+
+	public synchronized void loopRegionChanged( int loopStart, int loopEnd ) {
+		loopStartBeat = loopStart;
+		loopEndBeat = loopEnd;
+		if ( track == null )
+			return;
+		updateLoopPoints();
+		startPatching();
+		writeTempoEvents();
+	}
+
+	public synchronized void tempoMapChanged( TempoMap tempoMap ) {
+		this.tempoMap = tempoMap;
+		if ( track == null )
+			return;
+		startPatching();
+		writeTempoEvents();
+		// the tempo events already passed won't be played again before the loop comes around
+		if ( sequencer != null && sequencer.isRunning() )
+			sequencer.setTempoInMPQ( getMicrosecondsPerBeat( getCurrentBeat() ) );
+	}
+
+	private static long noteOnTick( int beat ) {
+		return (long)beat * TICKS_PER_BEAT;
+	}
+	// Notes are released one tick early, so that a note-off
+	// is never dispatched after the note-on of a note starting on the same beat,
+	// nor lost at the loop's end point.
+	private static long noteOffTick( int beat ) {
+		return (long)beat * TICKS_PER_BEAT - 1;
+	}
+
+	// Adds an event to the track, or has it added once that is safe.
+	private void addEvent( MidiEvent event ) {
+		if ( isSafeToPatch( event ) )
+			track.add( event );
+		else {
+			pendingEvents.add( event );
+			eventsAdded.add( Boolean.TRUE );
+		}
+	}
+	// Removes an event from the track, or has it removed once that is safe.
+	// An event still waiting to be added is simply not added.
+	private void removeEvent( MidiEvent event ) {
+		if ( event == null )
+			return;
+		int i = pendingEvents.lastIndexOf( event );
+		if ( i >= 0 && eventsAdded.get( i ) ) {
+			pendingEvents.remove( i );
+			eventsAdded.remove( i );
+		}
+		else if ( isSafeToPatch( event ) )
+			track.remove( event );
+		else {
+			pendingEvents.add( event );
+			eventsAdded.add( Boolean.FALSE );
+		}
+	}
+
+	private void addNoteEvents( int onset, int duration, int pitch, int velocity ) throws InvalidMidiDataException {
+		int midiNoteNumber = pitch + Score.midiNoteNumberOfLowestPitch;
+		addEvent( new MidiEvent(
+			new ShortMessage( ShortMessage.NOTE_ON, CHANNEL, midiNoteNumber, velocity ),
+			noteOnTick( onset )
+		) );
+		addEvent( new MidiEvent(
+			new ShortMessage( ShortMessage.NOTE_OFF, CHANNEL, midiNoteNumber, 0 ),
+			noteOffTick( onset + duration )
+		) );
+	}
+
+	// Returns the event with the given tick, command and note number that is in the track, or waiting to be added to it,
+	// or null if there is none.
+	// The events waiting to be added are looked at first, since they replace any removed from the track.
+	// Those of the track are sorted by tick, so they are found by binary search.
+	private MidiEvent findNoteEvent( long tick, int command, int midiNoteNumber ) {
+		for ( int i = pendingEvents.size() - 1; i >= 0; --i ) {
+			MidiEvent event = pendingEvents.get( i );
+			if ( eventsAdded.get( i ) && event.getTick() == tick && isNoteEvent( event, command, midiNoteNumber ) )
+				return event;
+		}
+		int lo = 0, hi = track.size();
+		while ( lo < hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			if ( track.get( mid ).getTick() < tick ) lo = mid + 1;
+			else hi = mid;
+		}
+		for ( int i = lo; i < track.size(); ++i ) {
+			MidiEvent event = track.get( i );
+			if ( event.getTick() != tick )
+				break;
+			if ( isNoteEvent( event, command, midiNoteNumber ) )
+				return event;
+		}
+		return null;
+	}
+	private static boolean isNoteEvent( MidiEvent event, int command, int midiNoteNumber ) {
+		if ( ! ( event.getMessage() instanceof ShortMessage ) )
+			return false;
+		ShortMessage message = (ShortMessage)event.getMessage();
+		return message.getCommand() == command && message.getData1() == midiNoteNumber;
+	}
+
+	private int getMicrosecondsPerBeat( int beat ) {
+		return (int)Math.round( tempoMap.getNanosecondsPerBeat( Math.max( beat, 0 ) ) / 1000.0 );
+	}
+
+	// Brings the tempo events of the track in line with the tempo map:
+	// one at the start of each segment, one at every beat of a ramp, and one at the start of the loop,
+	// for when the loop comes around.
+	// Only the events that differ from those already there are replaced,
+	// so moving the loop, for instance, changes a couple of events, however long the track.
+	private void writeTempoEvents() {
+		wantedTempoBeats.clear();
+		wantedTempoMicroseconds.clear();
+		int numSegments = tempoMap.getNumSegments();
+		for ( int i = 0; i < numSegments; ++i ) {
+			int start = tempoMap.getSegmentStart( i );
+			int end = Math.min( numBeats, i + 1 < numSegments ? tempoMap.getSegmentStart( i+1 ) : numBeats );
+			int step = tempoMap.isSegmentRamp( i ) ? 1 : Math.max( 1, end - start );
+			for ( int beat = start; beat < end; beat += step ) {
+				wantedTempoBeats.add( beat );
+				wantedTempoMicroseconds.add( getMicrosecondsPerBeat( beat ) );
+				if ( beat == start && start < loopStartBeat && loopStartBeat < end && step > 1 ) {
+					wantedTempoBeats.add( loopStartBeat );
+					wantedTempoMicroseconds.add( getMicrosecondsPerBeat( loopStartBeat ) );
+				}
+			}
+		}
+		// both lists are sorted by beat, and are merged
+		ArrayList< MidiEvent > oldTempoEvents = tempoEvents;
+		tempoEvents = new ArrayList< MidiEvent >( wantedTempoBeats.size() );
+		try {
+			int j = 0;
+			for ( int i = 0; i < wantedTempoBeats.size(); ++i ) {
+				long tick = noteOnTick( wantedTempoBeats.get( i ) );
+				int microsecondsPerBeat = wantedTempoMicroseconds.get( i );
+				while ( j < oldTempoEvents.size() && oldTempoEvents.get( j ).getTick() < tick )
+					removeEvent( oldTempoEvents.get( j++ ) );
+				if (
+					j < oldTempoEvents.size() && oldTempoEvents.get( j ).getTick() == tick
+					&& getMicrosecondsPerBeat( oldTempoEvents.get( j ) ) == microsecondsPerBeat
+				) {
+					tempoEvents.add( oldTempoEvents.get( j++ ) );
+					continue;
+				}
+				if ( j < oldTempoEvents.size() && oldTempoEvents.get( j ).getTick() == tick )
+					removeEvent( oldTempoEvents.get( j++ ) );
+				MidiEvent event = newTempoEvent( tick, microsecondsPerBeat );
+				addEvent( event );
+				tempoEvents.add( event );
+			}
+			while ( j < oldTempoEvents.size() )
+				removeEvent( oldTempoEvents.get( j++ ) );
+		} catch ( InvalidMidiDataException e ) {
+			Logger.getLogger( ScoreSequencer.class.getName() ).log( Level.SEVERE, null, e );
+		}
+	}
+
+	private static MidiEvent newTempoEvent( long tick, int microsecondsPerBeat ) throws InvalidMidiDataException {
+		byte [] data = {
+			(byte)( microsecondsPerBeat >> 16 ), (byte)( microsecondsPerBeat >> 8 ), (byte)microsecondsPerBeat
+		};
+		return new MidiEvent( new MetaMessage( TEMPO_META_TYPE, data, data.length ), tick );
+	}
+	private static int getMicrosecondsPerBeat( MidiEvent tempoEvent ) {
+		byte [] data = ( (MetaMessage)tempoEvent.getMessage() ).getData();
+		return ( ( data[0] & 0xff ) << 16 ) | ( ( data[1] & 0xff ) << 8 ) | ( data[2] & 0xff );
+	}
+
+	// Moves the end of the track to the end of the score,
+	// so that the loop covers the whole score even if its last beats are empty.
+	private void setEndOfTrack() {
+		long tick = noteOnTick( numBeats );
+		MidiEvent endOfTrack = track.get( track.size() - 1 );
+		if ( endOfTrack.getTick() < tick )
+			endOfTrack.setTick( tick );
+	}
+
+	private void updateLoopPoints() {
+		if ( sequencer == null || sequence == null )
+			return;
+		long end = Math.min( Math.max( 1, noteOnTick( loopEndBeat ) ), sequencer.getTickLength() );
+		long start = Math.max( 0, Math.min( noteOnTick( loopStartBeat ), end - 1 ) );
+		// the end point is reset first, since the start point may not be moved past it
+		sequencer.setLoopEndPoint( -1 );
+		sequencer.setLoopStartPoint( start );
+		sequencer.setLoopEndPoint( end );
+		sequencer.setLoopCount( isLooping ? Sequencer.LOOP_CONTINUOUSLY : 0 );
+	}
+
+}
@@ -1,39 +1,14 @@
-
 // import java.awt.Graphics2D;
-import java.awt.Color;
 import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
-import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.KeyEvent;
-import java.awt.event.KeyListener;
-import java.awt.event.MouseEvent;
-import java.awt.event.MouseListener;
-import java.awt.event.MouseMotionListener;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-
-import javax.sound.midi.InvalidMidiDataException;
+
 import javax.sound.midi.MidiChannel;
-import javax.sound.midi.MidiEvent;
 import javax.sound.midi.MidiSystem;
-import javax.sound.midi.Sequence;
-import javax.sound.midi.ShortMessage;
+import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Synthesizer;
-import javax.sound.midi.Track;
-import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
@@ -52,870 +27,6 @@ import javax.swing.SwingUtilities;
 
 
 
-/*
-   The octave:
-      pitch class     English name     French name
-           0             C             do
-           1             C#/Db         do diese / re bemol
-           2             D             re
-           3             D#/Eb         re diese / mi bemol
-           4             E             mi
-           5             F             fa
-           6             F#/Gb         fa diese / sol bemol
-           7             G             sol
-           8             G#/Ab         sol diese / la bemol
-           9             A             la
-          10             A#/Bb         la diese / si bemol
-          11             B             si
-           0             C             do
-
-   A grand piano keyboard has 88 keys:
-                              Note Name     MIDI note number     Pitch class
-      lowest key (1st key):       A0            21                     9
-      middle C:                   C4            60                     0
-      highest key (88th key):     C8           108                     0
-*/
-
-
-class Score {
-	public static final int midiNoteNumberOfMiddleC = 60;
-
-	public int numPitches = 88;
-	public static final int pitchClassOfLowestPitch = 9; // 9==A==la
-	public static final int midiNoteNumberOfLowestPitch = 21;
-	public int numBeats = 128;
-	public boolean [][] grid;
-
-	public static final int numPitchesInOctave = 12;
-	public String [] namesOfPitchClasses;
-	public boolean [] pitchClassesInMajorScale;
-	public boolean [] pitchClassesToEmphasizeInMajorScale;
-
-	public Score() {
-		grid = new boolean[ numBeats ][ numPitches ];
-
-		namesOfPitchClasses = new String[ numPitchesInOctave ];
-		namesOfPitchClasses[ 0] = "C";
-		namesOfPitchClasses[ 1] = "C#";
-		namesOfPitchClasses[ 2] = "D";
-		namesOfPitchClasses[ 3] = "D#";
-		namesOfPitchClasses[ 4] = "E";
-		namesOfPitchClasses[ 5] = "F";
-		namesOfPitchClasses[ 6] = "F#";
-		namesOfPitchClasses[ 7] = "G";
-		namesOfPitchClasses[ 8] = "G#";
-		namesOfPitchClasses[ 9] = "A";
-		namesOfPitchClasses[10] = "A#";
-		namesOfPitchClasses[11] = "B";
-
-		pitchClassesInMajorScale = new boolean[ numPitchesInOctave ];
-		pitchClassesInMajorScale[ 0] = true;
-		pitchClassesInMajorScale[ 1] = false;
-		pitchClassesInMajorScale[ 2] = true;
-		pitchClassesInMajorScale[ 3] = false;
-		pitchClassesInMajorScale[ 4] = true;
-		pitchClassesInMajorScale[ 5] = true;
-		pitchClassesInMajorScale[ 6] = false;
-		pitchClassesInMajorScale[ 7] = true;
-		pitchClassesInMajorScale[ 8] = false;
-		pitchClassesInMajorScale[ 9] = true;
-		pitchClassesInMajorScale[10] = false;
-		pitchClassesInMajorScale[11] = true;
-
-		pitchClassesToEmphasizeInMajorScale = new boolean[ numPitchesInOctave ];
-		pitchClassesToEmphasizeInMajorScale[ 0] = true;
-		pitchClassesToEmphasizeInMajorScale[ 1] = false;
-		pitchClassesToEmphasizeInMajorScale[ 2] = false;
-		pitchClassesToEmphasizeInMajorScale[ 3] = false;
-		pitchClassesToEmphasizeInMajorScale[ 4] = true;
-		pitchClassesToEmphasizeInMajorScale[ 5] = true;
-		pitchClassesToEmphasizeInMajorScale[ 6] = false;
-		pitchClassesToEmphasizeInMajorScale[ 7] = true;
-		pitchClassesToEmphasizeInMajorScale[ 8] = false;
-		pitchClassesToEmphasizeInMajorScale[ 9] = false;
-		pitchClassesToEmphasizeInMajorScale[10] = false;
-		pitchClassesToEmphasizeInMajorScale[11] = false;
-	}
-
-	// returns -1 if out of bounds
-	public int getMidiNoteNumberForMouseY( GraphicsWrapper gw, int mouse_y ) {
-		float y = gw.convertPixelsToWorldSpaceUnitsY( mouse_y );
-		int indexOfPitch = (int)(-y);
-		if ( 0 <= indexOfPitch && indexOfPitch < numPitches )
-			return indexOfPitch + midiNoteNumberOfLowestPitch;
-		return -1;
-	}
-
-	// returns -1 if out of bounds
-	public int getBeatForMouseX( GraphicsWrapper gw, int mouse_x ) {
-		float x = gw.convertPixelsToWorldSpaceUnitsX( mouse_x );
-		int indexOfBeat = (int)x;
-		if ( 0 <= indexOfBeat && indexOfBeat < numBeats )
-			return indexOfBeat;
-		return -1;
-	}
-
-	public void draw(
-		GraphicsWrapper gw,
-		boolean highlightMajorCScale,
-		int midiNoteNumber1ToHilite,
-		int beat1ToHilite,
-		int beat2ToHilite
-	) {
-		for ( int y = 0; y < numPitches; y++ ) {
-			int pitchClass = ( y + pitchClassOfLowestPitch ) % numPitchesInOctave;
-			int midiNoteNumber = y + midiNoteNumberOfLowestPitch;
-			if ( midiNoteNumber == midiNoteNumber1ToHilite ) { // mouse cursor
-				gw.setColor( 0, 1, 1 );
-				gw.fillRect( 0, -y-0.8f, numBeats, 0.6f );
-			}
-
-			if ( midiNoteNumber == midiNoteNumberOfMiddleC ) {
-				gw.setColor( 1, 1, 1 );
-				gw.fillRect( 0, -y-0.7f, numBeats, 0.4f );
-			}
-			else if ( pitchClass == 0 && highlightMajorCScale ) {
-				gw.setColor( 1, 1, 1 );
-				gw.fillRect( 0, -y-0.6f, numBeats, 0.2f );
-			}
-			else if ( pitchClassesToEmphasizeInMajorScale[ pitchClass ] && highlightMajorCScale ) {
-				gw.setColor( 0.6f, 0.6f, 0.6f );
-				gw.fillRect( 0, -y-0.6f, numBeats, 0.2f );
-			}
-			else if ( pitchClassesInMajorScale[ pitchClass ] || ! highlightMajorCScale ) {
-				gw.setColor( 0.6f, 0.6f, 0.6f );
-				gw.fillRect( 0, -y-0.55f, numBeats, 0.1f );
-			}
-		}
-		for ( int x = 0; x < numBeats; x++ ) {
-			if ( x == beat1ToHilite ) { // mouse cursor
-				gw.setColor( 0, 1, 1 );
-				gw.fillRect( x+0.2f, -numPitches, 0.6f, numPitches );
-			}
-
-			if ( x == beat2ToHilite ) { // time cursor
-				gw.setColor( 1, 0, 0 );
-				gw.fillRect( x+0.45f, -numPitches, 0.1f, numPitches );
-			}
-			else if ( x % 4 == 0 ) {
-				gw.setColor( 0.6f, 0.6f, 0.6f );
-				gw.fillRect( x+0.45f, -numPitches, 0.1f, numPitches );
-			}
-		}
-		gw.setColor( 0, 0, 0 );
-		for ( int y = 0; y < numPitches; ++y ) {
-			for ( int x = 0; x < numBeats; ++x ) {
-				if ( grid[x][y] )
-					gw.fillRect( x+0.3f, -y-0.7f, 0.4f, 0.4f );
-			}
-		}
-	}
-
-	public AlignedRectangle2D getBoundingRectangle() {
-		return new AlignedRectangle2D(
-			new Point2D(0,-numPitches),
-			new Point2D(numBeats,0)
-		);
-	}
-
-	public int getNumBeats() {
-		return numBeats;
-	}
-
-	public void setNumBeats(int numBeats) {
-		if (numBeats <= 128 && numBeats >= 0){
-			this.numBeats = numBeats;
-		}
-	}
-	
-}
-
-class MyCanvas extends JPanel implements KeyListener, MouseListener, MouseMotionListener, Runnable {
-
-	SimplePianoRoll simplePianoRoll;
-	GraphicsWrapper gw = new GraphicsWrapper();
-
-	Score score = new Score();
-
-	Metronome metronome = new Metronome();
-	
-	Thread thread = null;
-	boolean threadSuspended;
-
-	int currentBeat = 0;
-	int sleepIntervalInMilliseconds = 150;
-
-	public static final int RADIAL_MENU_PLAY = 0;
-	public static final int RADIAL_MENU_STOP = 1;
-	public static final int RADIAL_MENU_DRAW = 2;
-	public static final int RADIAL_MENU_ERASE = 3;
-
-	public static final int CONTROL_MENU_ZOOM = 0;
-	public static final int CONTROL_MENU_PAN = 1;
-	public static final int CONTROL_MENU_TEMPO = 2;
-	public static final int CONTROL_MENU_TOTAL_DURATION = 3;
-	public static final int CONTROL_MENU_TRANSPOSE = 4;
-
-	RadialMenuWidget radialMenu = new RadialMenuWidget();
-	ControlMenuWidget controlMenu = new ControlMenuWidget();
-
-	int mouse_x, mouse_y, old_mouse_x, old_mouse_y;
-
-	boolean isControlKeyDown = false;
-
-	int beatOfMouseCursor = -1; // -1 for none
-	int midiNoteNumberOfMouseCurser = -1; // -1 for none
-
-	private ArrayList<String> lines;
-	private Charset charset;
-	private Path target;
-	private File f;
-	private Sequence s;
-
-	int majorNotesTab[] = {0, 2, 4, 5, 7, 9, 11};
-	int pentatonicNOtesTab[] = {0, 2, 4, 7, 9};
-
-	public MyCanvas( SimplePianoRoll sp ) {
-
-		target = Paths.get("notes.txt");
-		charset = Charset.forName("US-ASCII");
-		lines = new ArrayList<>();
-
-		simplePianoRoll = sp;
-		setBorder( BorderFactory.createLineBorder( Color.black ) );
-		setBackground( Color.white );
-		addKeyListener( this );
-		addMouseListener( this );
-		addMouseMotionListener( this );
-
-		radialMenu.setItemLabelAndID( RadialMenuWidget.CENTRAL_ITEM, "",            RADIAL_MENU_STOP );
-		radialMenu.setItemLabelAndID( 1,                             "Stop Music",  RADIAL_MENU_STOP );
-		radialMenu.setItemLabelAndID( 3,                             "Draw Notes",  RADIAL_MENU_DRAW );
-		radialMenu.setItemLabelAndID( 5,                             "Play Music",  RADIAL_MENU_PLAY );
-		radialMenu.setItemLabelAndID( 7,                             "Erase Notes", RADIAL_MENU_ERASE );
-
-		controlMenu.setItemLabelAndID( ControlMenuWidget.CENTRAL_ITEM, "", -1 );
-		controlMenu.setItemLabelAndID( 1, "Tempo", CONTROL_MENU_TEMPO );
-		controlMenu.setItemLabelAndID( 2, "Pan", CONTROL_MENU_PAN );
-		controlMenu.setItemLabelAndID( 3, "Zoom", CONTROL_MENU_ZOOM );
-		controlMenu.setItemLabelAndID( 5, "Total Duration", CONTROL_MENU_TOTAL_DURATION );
-		controlMenu.setItemLabelAndID( 7, "Transpose", CONTROL_MENU_TRANSPOSE );
-
-		gw.frame( score.getBoundingRectangle(), false );
-	}
-	public Dimension getPreferredSize() {
-		return new Dimension( Constant.INITIAL_WINDOW_WIDTH, Constant.INITIAL_WINDOW_HEIGHT );
-	}
-	public void clear() {
-		for ( int y = 0; y < score.numPitches; ++y )
-			for ( int x = 0; x < score.numBeats; ++x )
-				score.grid[x][y] = false;
-		repaint();
-	}
-	public void frameAll() {
-		gw.frame( score.getBoundingRectangle(), false );
-		repaint();
-	}
-	public void paintComponent( Graphics g ) {
-		super.paintComponent( g );
-		gw.set( g );
-		if ( getWidth() != gw.getWidth() || getHeight() != gw.getHeight() )
-			gw.resize( getWidth(), getHeight() );
-		gw.clear(0.4f,0.4f,0.4f);
-		gw.setupForDrawing();
-		gw.setCoordinateSystemToWorldSpaceUnits();
-		gw.enableAlphaBlending();
-
-		score.draw(
-			gw,
-			simplePianoRoll.highlightMajorScale,
-			midiNoteNumberOfMouseCurser,
-			beatOfMouseCursor,
-			currentBeat
-		);
-
-		gw.setCoordinateSystemToPixels();
-
-		if ( radialMenu.isVisible() )
-			radialMenu.draw( gw );
-		if ( controlMenu.isVisible() )
-			controlMenu.draw( gw );
-
-		if ( ! radialMenu.isVisible() && ! controlMenu.isVisible() ) {
-			// draw datatip
-			if ( midiNoteNumberOfMouseCurser >= 0 && beatOfMouseCursor >= 0 ) {
-				final int margin = 5;
-				final int x_offset = 15;
-
-				String s = score.namesOfPitchClasses[
-					( midiNoteNumberOfMouseCurser - score.midiNoteNumberOfLowestPitch + score.pitchClassOfLowestPitch )
-					% score.numPitchesInOctave
-				];
-				int x0 = mouse_x + x_offset;
-				int y0 = mouse_y - RadialMenuWidget.textHeight - 2*margin;
-				int height = RadialMenuWidget.textHeight + 2*margin;
-				int width = Math.round( gw.stringWidth( s ) + 2*margin );
-				gw.setColor( 0, 0, 0, 0.6f );
-				gw.fillRect( x0, y0, width, height );
-				gw.setColor( 1, 1, 1 );
-				gw.drawRect( x0, y0, width, height );
-				gw.drawString( mouse_x + x_offset + margin, mouse_y - margin, s );
-			}
-		}
-	}
-
-	public void keyPressed( KeyEvent e ) {
-		if ( e.getKeyCode() == KeyEvent.VK_CONTROL ) {
-			isControlKeyDown = true;
-			if (
-				beatOfMouseCursor>=0
-				&& simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER_IF_SPECIAL_KEY_HELD_DOWN
-			)
-				playNote( midiNoteNumberOfMouseCurser );
-		}
-	}
-	public void keyReleased( KeyEvent e ) {
-		if ( e.getKeyCode() == KeyEvent.VK_CONTROL ) {
-			isControlKeyDown = false;
-			stopPlayingNote( midiNoteNumberOfMouseCurser );
-		}
-	}
-	public void keyTyped( KeyEvent e ) {
-	}
-
-
-	public void mouseClicked( MouseEvent e ) { }
-	public void mouseEntered( MouseEvent e ) { }
-	public void mouseExited( MouseEvent e ) { }
-
-	private void paint( int mouse_x, int mouse_y ) {
-		int newBeatOfMouseCursor = score.getBeatForMouseX( gw, mouse_x );
-		int newMidiNoteNumberOfMouseCurser = score.getMidiNoteNumberForMouseY( gw, mouse_y );
-		if (
-			newBeatOfMouseCursor != beatOfMouseCursor
-			|| newMidiNoteNumberOfMouseCurser != midiNoteNumberOfMouseCurser
-		) {
-			beatOfMouseCursor = newBeatOfMouseCursor;
-			midiNoteNumberOfMouseCurser = newMidiNoteNumberOfMouseCurser;
-			repaint();
-		}
-
-		if ( beatOfMouseCursor >= 0 && midiNoteNumberOfMouseCurser >= 0 ) {
-			if ( simplePianoRoll.dragMode == SimplePianoRoll.DM_DRAW_NOTES ) {
-				if ( score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] != true ) {
-
-					int cureentNote = midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch;
-
-					if( simplePianoRoll.isActivateMajorScale() && !isOnScale(cureentNote+Score.midiNoteNumberOfLowestPitch, Constant.MAJOR_SCALE)){
-						score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] = false;
-					}
-					else if( simplePianoRoll.isActivatePentatonicScale() && !isOnScale(cureentNote+Score.midiNoteNumberOfLowestPitch, Constant.PENTATONIC_SCALE) ) {
-						score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] = false;
-					}
-					else if( !simplePianoRoll.isActivateMajorScale() || !simplePianoRoll.isActivatePentatonicScale() ){
-						score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] = true;
-					}
-					System.out.println("x:"+beatOfMouseCursor+" y:"+(midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch));
-					repaint();
-				}
-			}
-			else if ( simplePianoRoll.dragMode == SimplePianoRoll.DM_ERASE_NOTES ) {
-				if ( score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] != false ) {
-					score.grid[beatOfMouseCursor][midiNoteNumberOfMouseCurser-score.midiNoteNumberOfLowestPitch] = false;
-					repaint();
-				}
-			}
-		}
-	}
-
-	public void mousePressed( MouseEvent e ) {
-		old_mouse_x = mouse_x;
-		old_mouse_y = mouse_y;
-		mouse_x = e.getX();
-		mouse_y = e.getY();
-
-		isControlKeyDown = e.isControlDown();
-
-		if ( radialMenu.isVisible() || (SwingUtilities.isLeftMouseButton(e) && e.isControlDown()) ) {
-			int returnValue = radialMenu.pressEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( controlMenu.isVisible() || (SwingUtilities.isLeftMouseButton(e) && e.isShiftDown()) ) {
-			int returnValue = controlMenu.pressEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( SwingUtilities.isLeftMouseButton(e) ) {
-			paint( mouse_x, mouse_y );
-		}
-	}
-
-	public void mouseReleased( MouseEvent e ) {
-		old_mouse_x = mouse_x;
-		old_mouse_y = mouse_y;
-		mouse_x = e.getX();
-		mouse_y = e.getY();
-
-		isControlKeyDown = e.isControlDown();
-
-		if ( radialMenu.isVisible() ) {
-			int returnValue = radialMenu.releaseEvent( mouse_x, mouse_y );
-
-			int itemID = radialMenu.getIDOfSelection();
-			if ( 0 <= itemID ) {
-				switch ( itemID ) {
-					case RADIAL_MENU_PLAY:
-						simplePianoRoll.setMusicPlaying( true );
-						break;
-					case RADIAL_MENU_STOP:
-						simplePianoRoll.setMusicPlaying( false );
-						break;
-					case RADIAL_MENU_DRAW:
-						simplePianoRoll.setDragMode( SimplePianoRoll.DM_DRAW_NOTES );
-						break;
-					case RADIAL_MENU_ERASE:
-						simplePianoRoll.setDragMode( SimplePianoRoll.DM_ERASE_NOTES );
-						break;
-				}
-			}
-
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( controlMenu.isVisible() ) {
-			int returnValue = controlMenu.releaseEvent( mouse_x, mouse_y );
-
-			if ( metronome.active )
-				metronome.stop();
-			
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-	}
-
-	private void playNote( int midiNoteNumber ) {
-		if ( Constant.USE_SOUND && midiNoteNumber >= 0 ) {
-			simplePianoRoll.midiChannels[0].noteOn(midiNoteNumber,Constant.midiVolume);
-		}
-	}
-	private void stopPlayingNote( int midiNoteNumber ) {
-		if ( Constant.USE_SOUND && midiNoteNumber >= 0 ) {
-			simplePianoRoll.midiChannels[0].noteOff(midiNoteNumber);
-		}
-	}
-
-	public void mouseMoved( MouseEvent e ) {
-		old_mouse_x = mouse_x;
-		old_mouse_y = mouse_y;
-		mouse_x = e.getX();
-		mouse_y = e.getY();
-
-		requestFocusInWindow();
-
-		isControlKeyDown = e.isControlDown();
-
-		if ( radialMenu.isVisible() ) {
-			int returnValue = radialMenu.moveEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( controlMenu.isVisible() ) {
-			int returnValue = controlMenu.moveEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		else {
-			int newBeatOfMouseCursor = score.getBeatForMouseX( gw, mouse_x );
-			int newMidiNoteNumberOfMouseCurser = score.getMidiNoteNumberForMouseY( gw, mouse_y );
-			if ( newBeatOfMouseCursor != beatOfMouseCursor ) {
-				beatOfMouseCursor = newBeatOfMouseCursor;
-				repaint();
-			}
-			if ( newMidiNoteNumberOfMouseCurser != midiNoteNumberOfMouseCurser ) {
-				stopPlayingNote( midiNoteNumberOfMouseCurser );
-				midiNoteNumberOfMouseCurser = newMidiNoteNumberOfMouseCurser;
-				if (
-					beatOfMouseCursor>=0
-					&& (
-						simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER
-						|| (
-							simplePianoRoll.rolloverMode == SimplePianoRoll.RM_PLAY_NOTE_UPON_ROLLOVER_IF_SPECIAL_KEY_HELD_DOWN
-							&& isControlKeyDown
-						)
-					)
-				)
-					playNote( midiNoteNumberOfMouseCurser );
-				repaint();
-			}
-			
-		}
-
-	}
-
-	public void mouseDragged( MouseEvent e ) {
-		old_mouse_x = mouse_x;
-		old_mouse_y = mouse_y;
-		mouse_x = e.getX();
-		mouse_y = e.getY();
-		int delta_x = mouse_x - old_mouse_x;
-		int delta_y = mouse_y - old_mouse_y;
-
-		isControlKeyDown = e.isControlDown();
-
-		if ( radialMenu.isVisible() ) {
-			int returnValue = radialMenu.dragEvent( mouse_x, mouse_y );
-			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
-			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-				return;
-		}
-		if ( controlMenu.isVisible() ) {
-			if ( controlMenu.isInMenuingMode() ) {
-				int returnValue = controlMenu.dragEvent( mouse_x, mouse_y );
-				if ( returnValue == CustomWidget.S_REDRAW )
-					repaint();
-				if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
-					return;
-			}
-			else {
-				// use the drag event to change the appropriate parameter
-				switch ( controlMenu.getIDOfSelection() ) {
-				case CONTROL_MENU_PAN:
-					gw.pan( delta_x, delta_y );
-					break;
-				case CONTROL_MENU_ZOOM:
-					gw.zoomIn( (float)Math.pow( Constant.zoomFactorPerPixelDragged, delta_x-delta_y ) );
-					break;
-				case CONTROL_MENU_TEMPO:
-					setSleepIntervalInMilliseconds(getSleepIntervalInMilliseconds() + delta_y);
-					simplePianoRoll.tempo.setText("Tempo: " + Integer.toString(getSleepIntervalInMilliseconds()) + " msec/beat");
-					metronome.start(Math.round(60000/getSleepIntervalInMilliseconds()));
-					break;
-				case CONTROL_MENU_TOTAL_DURATION:
-					score.setNumBeats(score.getNumBeats() + delta_y);
-					if (simplePianoRoll.isAutoFrameActive)
-						gw.frame(score.getBoundingRectangle(), true);
-					break;
-				default:
-					// TODO XXX
-					break;
-				}
-				repaint();
-			}
-		}
-		else {
-			paint( mouse_x, mouse_y );
-		}
-	}
-
-	public void startBackgroundWork() {
-		currentBeat = 0;
-		if ( thread == null ) {
-			thread = new Thread( this );
-			threadSuspended = false;
-			thread.start();
-		}
-		else {
-			if ( threadSuspended ) {
-				threadSuspended = false;
-				synchronized( this ) {
-					notify();
-				}
-			}
-		}
-	}
-	public void stopBackgroundWork() {
-		threadSuspended = true;
-	}
-	public void run() {
-		try {
-			while (true) {
-				synchronized( this ) {
-					if ( Constant.USE_SOUND ) {
-						for ( int i = 0; i < score.numPitches; ++i ) {
-							if ( score.grid[currentBeat][i] )
-								simplePianoRoll.midiChannels[0].noteOff( i+score.midiNoteNumberOfLowestPitch );
-						}
-					}
-					currentBeat += 1;
-					if ( currentBeat >= score.numBeats )
-						currentBeat = 0;
-					if ( Constant.USE_SOUND ) {
-						for ( int i = 0; i < score.numPitches; ++i ) {
-							if ( score.grid[currentBeat][i] )
-								simplePianoRoll.midiChannels[0].noteOn( i+score.midiNoteNumberOfLowestPitch, Constant.midiVolume );
-						}
-					}					
-				}
-				repaint();
-
-				// Now the thread checks to see if it should suspend itself
-				if ( threadSuspended ) {
-					synchronized( this ) {
-						while ( threadSuspended ) {
-							wait();
-						}
-					}
-				}
-				thread.sleep( sleepIntervalInMilliseconds );  // interval given in milliseconds
-			}
-		}
-		catch (InterruptedException e) { }
-	}
-	
-	public int getSleepIntervalInMilliseconds() {
-		return sleepIntervalInMilliseconds;
-	}
-	public void setSleepIntervalInMilliseconds(int sleepIntervalInMilliseconds) {
-		if (sleepIntervalInMilliseconds > 0)
-			this.sleepIntervalInMilliseconds = sleepIntervalInMilliseconds;
-	}
-
-	// save all notes
-	public void saveNotes(){
-
-		System.out.println("from save notes");
-		try(BufferedWriter writer = Files.newBufferedWriter(target, charset))
-		{
-			String note = "";
-
-			for(int x=0; x < score.numBeats; x++){
-				for(int y=0; y<score.numPitches; y++){
-
-					if (score.grid[x][y]){
-						writer.write(note+" x: "+x+" y: "+y+"\n");
-					}
-				}
-			}
-		}catch (IOException e){
-			System.out.println(e.getMessage());
-		}
-	}
-
-	public void generateNotes(SimplePianoRoll spr) {
-
-		if(spr.isActivateMajorScale()){
-			generateSacle(Constant.MAJOR_SCALE);
-		}else if(spr.isActivatePentatonicScale()) {
-			generateSacle(Constant.PENTATONIC_SCALE); 
-		}
-	}
-
-	public void generateSacle(int scaleType){
-
-		Map range = getRange();
-
-		int minRangeVal = (int) range.get("min");
-		int maxRangeVal = (int) range.get("max");
-
-		System.out.println("Min range: "+minRangeVal);
-		System.out.println("Max range: "+maxRangeVal);
-
-		int noteValue;
-		int pitch = 0;
-
-		noteValue = (int)  (Math.random() * (maxRangeVal - minRangeVal)) + minRangeVal;
-		if( Constant.MAJOR_SCALE == scaleType ) {
-			for( int x=0; x<score.numBeats; x++ ) {
-
-				noteValue = (int)  (Math.random() * (maxRangeVal - minRangeVal)) + minRangeVal;
-				System.out.println("before trs : "+noteValue);
-
-				if( isOnScale( noteValue + Score.midiNoteNumberOfLowestPitch , Constant.MAJOR_SCALE) ){
-					System.out.println("painted: "+pitch);
-					// pitch =  noteValue + Score.midiNoteNumberOfLowestPitch + getYTranslation(noteValue);
-					score.grid[x][noteValue] = true; //+ getYTranslation(noteValue)
-				}
-			}
-			repaint();
-		}
-		else if( Constant.PENTATONIC_SCALE == scaleType ) {
-			for( int x=0; x<score.numBeats; x++ ) {
- 
-				//noteValue += + getYTranslation(noteValue);
-				noteValue = (int)  (Math.random() * (maxRangeVal - minRangeVal)) + minRangeVal;
-				
-				if( isOnScale( noteValue + Score.midiNoteNumberOfLowestPitch , Constant.PENTATONIC_SCALE) ){
-					score.grid[x][noteValue] = true; 
-				}
-			}
-			repaint();
-		}
-	}
-
-	public int getYTranslation(int random){
-
-		//float random = (float)Math.random();
-
-		if( random < 45){
-			return 1;
-			//System.out.println(1);
-		}
-		else if ( random >= 45 && random <=65 ) {
-			return -1;
-			//System.out.println(-1);
-		}
-		else if( random > 70 ){
-			return 0;
-			//System.out.println(0);
-		}
-		return 1;
-
-	}
-
-
-	public Map getRange(){
-
-		Random rand = new Random();
-		Map<String, Integer> minMaxVal = new HashMap<>();
-
-		int range =  rand.nextInt(88);
-
-		if ( range >=3 && range <= 15 ) {
-			minMaxVal.put("min", 3);
-			minMaxVal.put("max", 15);
-		}
-
-		else if ( range >15 && range <= 27 ) {
-			minMaxVal.put("min", 15);
-			minMaxVal.put("max", 27);
-		}
-
-		else if ( range >27 && range <= 39 ) {
-			minMaxVal.put("min", 27);
-			minMaxVal.put("max", 39);
-		}
-
-		else if ( range >39 && range <= 51 ) {
-			minMaxVal.put("min", 39);
-			minMaxVal.put("max", 51);
-		}
-
-		else if ( range >51 && range <= 63 ) {
-			minMaxVal.put("min", 51);
-			minMaxVal.put("max", 63);
-		}
-
-		else if ( range >63 && range <= 75 ) {
-			minMaxVal.put("min", 63);
-			minMaxVal.put("max", 75);
-		}
-
-		else if ( range >75 && range <= 87 ) {
-			minMaxVal.put("min", 75);
-			minMaxVal.put("max", 87);
-		}
-
-		return minMaxVal;
-	}
-
-
-	public boolean isOnScale(int note, int scaleType){
-
-		//int note_ = ( note >= 15 ) ? ( ( note % 12 ) - 3 ) : ( note % 12 );
-		int note_ = note % 12;
-
-		if( Constant.MAJOR_SCALE == scaleType ) {
-			for (int val : majorNotesTab) {
-				if( note_ == val ) {
-					return true;
-				}
-			}
-		}
-		else if ( Constant.PENTATONIC_SCALE == scaleType ) {
-			for (int val : pentatonicNOtesTab) {
-				if( note_ == val ) {
-					return true;
-				}
-			}
-		}
-
-		return false;
-	}
-
-
-	public void saveMidiFile(int i) {
-
-		ShortMessage mm = new ShortMessage();
-		s = null;
-		try {
-			s = new Sequence(javax.sound.midi.Sequence.PPQ,24);
-			//mm.setMessage(0xC0, 0x00, 0x00);
-			mm.setMessage(i);
-			Track t = s.createTrack();
-			MidiEvent me = new MidiEvent(mm,(long)121);
-			t.add(me);
-
-			mm = new ShortMessage();
-			mm.setMessage(0x80,0x3C,0x40);
-			me = new MidiEvent(mm,(long)121);
-			t.add(me);
-
-
-		} catch (InvalidMidiDataException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
-		f = new File("midifile.mid");
-
-	}
-
-
-
-	// load all saved notes
-	public void loadNotes(){
-
-		try(BufferedReader reader = Files.newBufferedReader(target, charset))
-		{
-			String []note;
-			String tmp = "";
-
-			while( (tmp = reader.readLine()) != null ){
-
-				note = tmp.split("\\s+");
-				System.out.println("x: "+note[2]);
-				System.out.println("y: "+note[4]);
-
-				int xNote = Integer.valueOf(note[2]);
-				int yNote = Integer.valueOf(note[4]);
-
-				score.grid[xNote][yNote] = true;
-			}
-		}catch(IOException e){
-			System.out.println(e.getMessage());
-		}
-	}
-
-
-	public void openNotes(){
-		try (BufferedReader reader = Files.newBufferedReader(target, charset))
-		{
-			String line = null;
-			while( (line = reader.readLine()) != null ){
-				System.out.println(line);
-				lines.add(line);
-			}
-
-		}catch (IOException e){
-			System.out.println(e.getMessage());
-		}
-	}
-}
-
 public class SimplePianoRoll implements ActionListener {
 
 	static final String applicationName = "Simple Piano Roll";
@@ -928,15 +39,22 @@ public class SimplePianoRoll implements ActionListener {
 	MidiChannel [] midiChannels;
 
 	JMenuItem clearMenuItem;
+	JMenuItem clearLoopRegionMenuItem;
+	JMenuItem clearTempoChangesMenuItem;
 	JMenuItem quitMenuItem;
 	JCheckBoxMenuItem showToolsMenuItem;
 	JCheckBoxMenuItem highlightMajorScaleMenuItem;
 	JMenuItem frameAllMenuItem;
 	JCheckBoxMenuItem autoFrameMenuItem;
+	JCheckBoxMenuItem renderInBackgroundMenuItem;
+	JCheckBoxMenuItem showFrameStatsMenuItem;
 	JMenuItem aboutMenuItem;
 
 	JCheckBox playCheckBox;
 	JCheckBox loopWhenPlayingCheckBox;
+	JCheckBox sequencedPlaybackCheckBox;
+	JCheckBox swingCheckBox;
+	JCheckBox humanizeCheckBox;
 
 	JRadioButton drawNotesRadioButton;
 	JRadioButton eraseNotesRadioButton;
@@ -954,14 +72,20 @@ public class SimplePianoRoll implements ActionListener {
 
 	private JButton saveButton;
 	private JButton loadButton;
+	private JButton exportAudioButton;
 	private JButton generateButton;
 
 	JLabel tempo;
 	
 	public boolean isMusicPlaying = false;
 	public boolean isMusicLoopedWhenPlayed = false;
+	public boolean isPlaybackSequenced = false;
+	public boolean isMusicSwung = false;
+	public boolean isMusicHumanized = false;
 	public boolean highlightMajorScale = true;
 	public boolean isAutoFrameActive = true;
+	public boolean isRenderedInBackground = false;
+	public boolean isFrameStatsShown = false;
 
 	// The DM_ prefix is for Drag Mode
 	public static final int DM_DRAW_NOTES = 0;
@@ -1021,12 +145,21 @@ public class SimplePianoRoll implements ActionListener {
 		if ( source == clearMenuItem ) {
 			canvas.clear();
 		}
+		else if ( source == clearLoopRegionMenuItem ) {
+			canvas.clearLoopRegion();
+		}
+		else if ( source == clearTempoChangesMenuItem ) {
+			canvas.clearTempoChanges();
+		}
 		if( source == saveButton ){
 			canvas.saveNotes();
 		}
 		else if( source == loadButton ){
 			canvas.loadNotes();
 		}
+		else if( source == exportAudioButton ){
+			canvas.exportAudio();
+		}
 		else if ( source == quitMenuItem ) {
 			int response = JOptionPane.showConfirmDialog(
 				frame,
@@ -1065,6 +198,14 @@ public class SimplePianoRoll implements ActionListener {
 			isAutoFrameActive = autoFrameMenuItem.isSelected();
 			canvas.repaint();
 		}
+		else if ( source == renderInBackgroundMenuItem ) {
+			isRenderedInBackground = renderInBackgroundMenuItem.isSelected();
+			canvas.setRenderedInBackground( isRenderedInBackground );
+		}
+		else if ( source == showFrameStatsMenuItem ) {
+			isFrameStatsShown = showFrameStatsMenuItem.isSelected();
+			canvas.repaint();
+		}
 		else if ( source == aboutMenuItem ) {
 			JOptionPane.showMessageDialog(
 				frame,
@@ -1083,6 +224,19 @@ public class SimplePianoRoll implements ActionListener {
 		}
 		else if ( source == loopWhenPlayingCheckBox ) {
 			isMusicLoopedWhenPlayed = loopWhenPlayingCheckBox.isSelected();
+			canvas.setMusicLooped( isMusicLoopedWhenPlayed );
+		}
+		else if ( source == sequencedPlaybackCheckBox ) {
+			isPlaybackSequenced = sequencedPlaybackCheckBox.isSelected();
+			canvas.setPlaybackSequenced( isPlaybackSequenced );
+		}
+		else if ( source == swingCheckBox ) {
+			isMusicSwung = swingCheckBox.isSelected();
+			canvas.setSwung( isMusicSwung );
+		}
+		else if ( source == humanizeCheckBox ) {
+			isMusicHumanized = humanizeCheckBox.isSelected();
+			canvas.setHumanized( isMusicHumanized );
 		}
 		else if ( source == drawNotesRadioButton ) {
 			dragMode = DM_DRAW_NOTES;
@@ -1151,6 +305,14 @@ public class SimplePianoRoll implements ActionListener {
 				clearMenuItem.addActionListener(this);
 				menu.add(clearMenuItem);
 
+				clearLoopRegionMenuItem = new JMenuItem("Clear Loop Region");
+				clearLoopRegionMenuItem.addActionListener(this);
+				menu.add(clearLoopRegionMenuItem);
+
+				clearTempoChangesMenuItem = new JMenuItem("Clear Tempo Changes");
+				clearTempoChangesMenuItem.addActionListener(this);
+				menu.add(clearTempoChangesMenuItem);
+
 				menu.addSeparator();
 
 				quitMenuItem = new JMenuItem("Quit");
@@ -1178,6 +340,18 @@ public class SimplePianoRoll implements ActionListener {
 				autoFrameMenuItem.setSelected( isAutoFrameActive );
 				autoFrameMenuItem.addActionListener(this);
 				menu.add(autoFrameMenuItem);
+
+				menu.addSeparator();
+
+				renderInBackgroundMenuItem = new JCheckBoxMenuItem("Render in Background");
+				renderInBackgroundMenuItem.setSelected( isRenderedInBackground );
+				renderInBackgroundMenuItem.addActionListener(this);
+				menu.add(renderInBackgroundMenuItem);
+
+				showFrameStatsMenuItem = new JCheckBoxMenuItem("Show Frame Statistics");
+				showFrameStatsMenuItem.setSelected( isFrameStatsShown );
+				showFrameStatsMenuItem.addActionListener(this);
+				menu.add(showFrameStatsMenuItem);
 			menuBar.add(menu);
 			menu = new JMenu("Help");
 				aboutMenuItem = new JMenuItem("About");
@@ -1206,6 +380,22 @@ public class SimplePianoRoll implements ActionListener {
 		loopWhenPlayingCheckBox.addActionListener(this);
 		toolPanel.add( loopWhenPlayingCheckBox );
 
+		sequencedPlaybackCheckBox = new JCheckBox("Sequenced playback", isPlaybackSequenced );
+		sequencedPlaybackCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		sequencedPlaybackCheckBox.setEnabled( canvas.scoreSequencer != null );
+		sequencedPlaybackCheckBox.addActionListener(this);
+		toolPanel.add( sequencedPlaybackCheckBox );
+
+		swingCheckBox = new JCheckBox("Swing", isMusicSwung );
+		swingCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		swingCheckBox.addActionListener(this);
+		toolPanel.add( swingCheckBox );
+
+		humanizeCheckBox = new JCheckBox("Humanize", isMusicHumanized );
+		humanizeCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		humanizeCheckBox.addActionListener(this);
+		toolPanel.add( humanizeCheckBox );
+
 		toolPanel.add( Box.createRigidArea(new Dimension(1,20)) );
 		toolPanel.add( new JLabel("During dragging:") );
 
@@ -1287,7 +477,7 @@ public class SimplePianoRoll implements ActionListener {
 		toolPanel.add(generateButton);
 
 		toolPanel.add( Box.createRigidArea(new Dimension(1,20)) );
-		tempo = new JLabel("Tempo: " + canvas.getSleepIntervalInMilliseconds() + " msec/beat");
+		tempo = new JLabel(canvas.getTempoDescription());
 		toolPanel.add(tempo);
 
 		toolPanel.add( Box.createRigidArea(new Dimension(1,20)) );
@@ -1301,6 +491,17 @@ public class SimplePianoRoll implements ActionListener {
 		loadButton.addActionListener(this);
 		toolPanel.add(loadButton);
 
+		exportAudioButton = new JButton("Export Audio");
+		exportAudioButton.addActionListener(this);
+		try {
+			ScoreRenderer.checkAvailability();
+		}
+		catch ( MidiUnavailableException e ) {
+			exportAudioButton.setEnabled( false );
+			exportAudioButton.setToolTipText( e.getMessage() );
+		}
+		toolPanel.add(exportAudioButton);
+
 		frame.pack();
 		frame.setVisible( true );
 
@@ -0,0 +1,157 @@
+
+import java.util.Arrays;
+
+// The tempo of a score over time, as a list of segments, each starting at a given beat.
+// Within a segment, the tempo is either constant,
+// or ramps linearly (in beats per minute, over beats) to the tempo of the next segment.
+// The last segment goes on forever at a constant tempo.
+//
+// The time at which each segment starts is precomputed,
+// so converting between beats and time is a binary search over the segments
+// followed by a closed-form computation within one segment.
+//
+// A TempoMap never changes once constructed (the with...() methods return new maps),
+// so it can be shared by snapshots of a score and read from any thread.
+public class TempoMap {
+
+	private static final double NANOSECONDS_PER_MINUTE = BeatScheduler.NANOSECONDS_PER_MINUTE;
+
+	private final int [] startBeats; // sorted, and startBeats[ 0 ] == 0
+	private final double [] tempos; // in beats per minute, at the start of each segment
+	private final boolean [] isRamp; // true if the tempo ramps to that of the next segment
+	private final double [] startTimes; // in nanoseconds since beat 0
+
+	public TempoMap( double tempoInBPM ) {
+		this( new int[] { 0 }, new double[] { tempoInBPM }, new boolean[] { false } );
+	}
+
+	private TempoMap( int [] startBeats, double [] tempos, boolean [] isRamp ) {
+		this.startBeats = startBeats;
+		this.tempos = tempos;
+		this.isRamp = isRamp;
+		startTimes = new double[ startBeats.length ];
+		for ( int i = 1; i < startBeats.length; ++i )
+			startTimes[ i ] = startTimes[ i-1 ] + getTimeWithinSegment( i-1, startBeats[ i ] - startBeats[ i-1 ] );
+	}
+
+	public int getNumSegments() { return startBeats.length; }
+	public int getSegmentStart( int i ) { return startBeats[ i ]; }
+	public double getSegmentTempoInBPM( int i ) { return tempos[ i ]; }
+	public boolean isSegmentRamp( int i ) { return isRamp[ i ]; }
+
+	// Returns a copy of this map, with a segment starting at the given beat
+	// (replacing the one already there, if any).
+	public TempoMap withTempo( int beat, double tempoInBPM, boolean isRampToNext ) {
+		if ( beat < 0 || tempoInBPM <= 0 )
+			return this;
+		int i = Arrays.binarySearch( startBeats, beat );
+		int [] newStartBeats;
+		double [] newTempos;
+		boolean [] newIsRamp;
+		if ( i >= 0 ) {
+			newStartBeats = startBeats;
+			newTempos = tempos.clone();
+			newIsRamp = isRamp.clone();
+		}
+		else {
+			i = -i - 1;
+			int n = startBeats.length;
+			newStartBeats = new int[ n + 1 ];
+			newTempos = new double[ n + 1 ];
+			newIsRamp = new boolean[ n + 1 ];
+			System.arraycopy( startBeats, 0, newStartBeats, 0, i );
+			System.arraycopy( tempos, 0, newTempos, 0, i );
+			System.arraycopy( isRamp, 0, newIsRamp, 0, i );
+			System.arraycopy( startBeats, i, newStartBeats, i+1, n - i );
+			System.arraycopy( tempos, i, newTempos, i+1, n - i );
+			System.arraycopy( isRamp, i, newIsRamp, i+1, n - i );
+			newStartBeats[ i ] = beat;
+		}
+		newTempos[ i ] = tempoInBPM;
+		newIsRamp[ i ] = isRampToNext;
+		return new TempoMap( newStartBeats, newTempos, newIsRamp );
+	}
+
+	// Returns a copy of this map with every tempo multiplied by the given factor.
+	public TempoMap scaledBy( double factor ) {
+		if ( factor <= 0 )
+			return this;
+		double [] newTempos = new double[ tempos.length ];
+		for ( int i = 0; i < tempos.length; ++i )
+			newTempos[ i ] = tempos[ i ] * factor;
+		return new TempoMap( startBeats, newTempos, isRamp );
+	}
+
+	// Returns the index of the segment holding the given beat.
+	private int findSegmentOfBeat( double beat ) {
+		int lo = 0, hi = startBeats.length - 1;
+		while ( lo < hi ) {
+			int mid = ( lo + hi + 1 ) >>> 1;
+			if ( startBeats[ mid ] <= beat ) lo = mid;
+			else hi = mid - 1;
+		}
+		return lo;
+	}
+
+	// Returns the index of the segment holding the given time.
+	private int findSegmentOfTime( double time ) {
+		int lo = 0, hi = startTimes.length - 1;
+		while ( lo < hi ) {
+			int mid = ( lo + hi + 1 ) >>> 1;
+			if ( startTimes[ mid ] <= time ) lo = mid;
+			else hi = mid - 1;
+		}
+		return lo;
+	}
+
+	// The rate of change of the tempo within a segment, in beats per minute per beat.
+	private double getSlope( int i ) {
+		if ( ! isRamp[ i ] || i + 1 == startBeats.length )
+			return 0;
+		return ( tempos[ i+1 ] - tempos[ i ] ) / ( startBeats[ i+1 ] - startBeats[ i ] );
+	}
+
+	// The time taken by the first ``beats'' beats of the given segment.
+	// With the tempo ramping as t(b) = t0 + k b, this is the integral of 1/t(b), i.e. ln( t(b)/t0 ) / k minutes.
+	private double getTimeWithinSegment( int i, double beats ) {
+		double k = getSlope( i );
+		if ( k == 0 )
+			return beats * NANOSECONDS_PER_MINUTE / tempos[ i ];
+		return Math.log( ( tempos[ i ] + k * beats ) / tempos[ i ] ) / k * NANOSECONDS_PER_MINUTE;
+	}
+
+	// The inverse of the above.
+	private double getBeatsWithinSegment( int i, double time ) {
+		double k = getSlope( i );
+		if ( k == 0 )
+			return time * tempos[ i ] / NANOSECONDS_PER_MINUTE;
+		return tempos[ i ] * ( Math.exp( k * time / NANOSECONDS_PER_MINUTE ) - 1 ) / k;
+	}
+
+	public double getTempoInBPM( double beat ) {
+		int i = findSegmentOfBeat( beat );
+		return tempos[ i ] + getSlope( i ) * ( beat - startBeats[ i ] );
+	}
+
+	// Returns the time, in nanoseconds since beat 0, at which the given beat starts.
+	public double getTimeOfBeat( double beat ) {
+		if ( beat <= 0 )
+			return beat * NANOSECONDS_PER_MINUTE / tempos[ 0 ];
+		int i = findSegmentOfBeat( beat );
+		return startTimes[ i ] + getTimeWithinSegment( i, beat - startBeats[ i ] );
+	}
+
+	// Returns the (fractional) beat being played at the given time, in nanoseconds since beat 0.
+	public double getBeatAtTime( double time ) {
+		if ( time <= 0 )
+			return time * tempos[ 0 ] / NANOSECONDS_PER_MINUTE;
+		int i = findSegmentOfTime( time );
+		return startBeats[ i ] + getBeatsWithinSegment( i, time - startTimes[ i ] );
+	}
+
+	// Returns how long the given beat lasts.
+	public long getNanosecondsPerBeat( int beat ) {
+		return Math.max( 1, Math.round( getTimeOfBeat( beat + 1 ) - getTimeOfBeat( beat ) ) );
+	}
+
+}
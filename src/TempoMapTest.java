@@ -0,0 +1,87 @@
+// Checks that converting beats to time and back with a TempoMap gives the beats again,
+// across constant and ramping segments, and on either side of the boundaries between them.
+//
+// The beats are taken every STEP_IN_BEATS beats, before the first segment as well as after the last,
+// plus a little before, on, and a little after the start of each segment.
+// Times are checked to be increasing with the beats, and to be continuous at the start of each segment;
+// the tempo halfway through a ramp is checked to be halfway between the tempos of its ends.
+// Exits with status 1 on the first failure:
+//    java TempoMapTest
+public class TempoMapTest {
+
+	public static final double STEP_IN_BEATS = 0.125;
+	public static final double MAX_ERROR_IN_BEATS = 1e-9;
+	// How close the time at the start of a segment must be to the time reached just before it, in nanoseconds.
+	public static final double MAX_DISCONTINUITY_IN_NANOSECONDS = 10;
+	private static final double EPSILON_IN_BEATS = 1e-7;
+
+	// Constant tempos, ramps up and down, a ramp followed by another, and a ramp into the last segment.
+	private static TempoMap makeTempoMap() {
+		return new TempoMap( 120 )
+			.withTempo( 8, 60, true )
+			.withTempo( 16, 180, false )
+			.withTempo( 24, 90, true )
+			.withTempo( 32, 240, true )
+			.withTempo( 40, 40, true )
+			.withTempo( 41, 200, false )
+			.withTempo( 48, 100, true ); // the last segment can't ramp: this is constant
+	}
+
+	private static void fail( String message ) {
+		System.out.println( "FAILED: " + message );
+		System.exit( 1 );
+	}
+
+	private static void checkRoundTrip( TempoMap tempoMap, double beat ) {
+		double time = tempoMap.getTimeOfBeat( beat );
+		double beatAgain = tempoMap.getBeatAtTime( time );
+		if ( Math.abs( beatAgain - beat ) > MAX_ERROR_IN_BEATS )
+			fail( "beat " + beat + " is at " + time + " ns, which gives beat " + beatAgain );
+		double timeAgain = tempoMap.getTimeOfBeat( beatAgain );
+		if ( Math.abs( timeAgain - time ) > MAX_DISCONTINUITY_IN_NANOSECONDS )
+			fail( "time " + time + " ns is at beat " + beatAgain + ", which gives " + timeAgain + " ns" );
+	}
+
+	public static void main( String [] args ) {
+		TempoMap tempoMap = makeTempoMap();
+		int numSegments = tempoMap.getNumSegments();
+		int lastStart = tempoMap.getSegmentStart( numSegments - 1 );
+		int numChecks = 0;
+
+		double previousTime = Double.NEGATIVE_INFINITY;
+		for ( double beat = -4; beat <= lastStart + 8; beat += STEP_IN_BEATS ) {
+			double time = tempoMap.getTimeOfBeat( beat );
+			if ( time <= previousTime )
+				fail( "time doesn't increase at beat " + beat );
+			previousTime = time;
+			checkRoundTrip( tempoMap, beat );
+			++numChecks;
+		}
+
+		for ( int i = 1; i < numSegments; ++i ) {
+			int start = tempoMap.getSegmentStart( i );
+			checkRoundTrip( tempoMap, start - EPSILON_IN_BEATS );
+			checkRoundTrip( tempoMap, start );
+			checkRoundTrip( tempoMap, start + EPSILON_IN_BEATS );
+			numChecks += 3;
+			// the time of the start, extrapolated from just before it with the tempo there
+			double approachingTime = tempoMap.getTimeOfBeat( start - EPSILON_IN_BEATS )
+				+ EPSILON_IN_BEATS * BeatScheduler.NANOSECONDS_PER_MINUTE / tempoMap.getTempoInBPM( start - EPSILON_IN_BEATS );
+			double startTime = tempoMap.getTimeOfBeat( start );
+			if ( Math.abs( startTime - approachingTime ) > MAX_DISCONTINUITY_IN_NANOSECONDS )
+				fail( "time jumps from " + approachingTime + " ns to " + startTime + " ns at the start of segment " + i );
+
+			int previousStart = tempoMap.getSegmentStart( i-1 );
+			if ( tempoMap.isSegmentRamp( i-1 ) ) {
+				double middleTempo = tempoMap.getTempoInBPM( ( previousStart + start ) / 2.0 );
+				double expectedTempo = ( tempoMap.getSegmentTempoInBPM( i-1 ) + tempoMap.getSegmentTempoInBPM( i ) ) / 2;
+				if ( Math.abs( middleTempo - expectedTempo ) > 1e-9 )
+					fail( "the tempo halfway through segment " + ( i-1 ) + " is " + middleTempo + " BPM instead of " + expectedTempo );
+			}
+		}
+
+		System.out.println( numSegments + " segments: " + numChecks + " beats converted to time and back" );
+		System.out.println( "passed" );
+	}
+
+}
@@ -0,0 +1,68 @@
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The layout of strings: the glyphs of each string, ready to be drawn,
+// for a given font and FontRenderContext (which holds the transform and hints the glyphs depend on).
+// Text drawn frame after frame, such as the labels of the menus and the datatip, is then only laid out once.
+// Widths are better measured with FontMetrics, which is faster than a lookup here.
+//
+// Only the MAX_ENTRIES most recently used layouts are kept.
+// This isn't thread safe; each GraphicsWrapper has its own.
+public class TextLayoutCache {
+
+	public static final int MAX_ENTRIES = 256;
+
+	private static class Key {
+		String string;
+		Font font;
+		FontRenderContext fontRenderContext;
+
+		Key() { }
+		Key( Key other ) {
+			string = other.string;
+			font = other.font;
+			fontRenderContext = other.fontRenderContext;
+		}
+
+		public boolean equals( Object o ) {
+			if ( ! ( o instanceof Key ) )
+				return false;
+			Key k = (Key)o;
+			return string.equals( k.string ) && font.equals( k.font ) && fontRenderContext.equals( k.fontRenderContext );
+		}
+		public int hashCode() {
+			return ( string.hashCode() * 31 + font.hashCode() ) * 31 + fontRenderContext.hashCode();
+		}
+	}
+
+	private LinkedHashMap< Key, GlyphVector > layouts = new LinkedHashMap< Key, GlyphVector >( 16, 0.75f, true ) { // in access order
+		protected boolean removeEldestEntry( Map.Entry< Key, GlyphVector > eldest ) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private Key lookupKey = new Key();
+
+	public GlyphVector get( String s, Font font, FontRenderContext fontRenderContext ) {
+		lookupKey.string = s;
+		lookupKey.font = font;
+		lookupKey.fontRenderContext = fontRenderContext;
+		GlyphVector glyphs = layouts.get( lookupKey );
+		if ( glyphs == null ) {
+			glyphs = font.createGlyphVector( fontRenderContext, s );
+			layouts.put( new Key( lookupKey ), glyphs );
+		}
+		lookupKey.string = null; // so the string isn't kept alive by the lookup key
+		return glyphs;
+	}
+
+	public int size() { return layouts.size(); }
+
+	public void clear() {
+		layouts.clear();
+	}
+
+}